@@ -0,0 +1,191 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+/**
+ * A BinaryDataFile stores a DataSet in a compact binary form next to the csv file it
+ * was read from, so that later loads can read the columns in bulk instead of parsing
+ * text again.
+ *
+ * The file layout (big-endian) is:
+ *
+ *     magic "LAPD", format version
+ *     size and last-modified time of the csv file
+ *     pollutant, year, metric, units (length-prefixed UTF-8)
+ *     number of rows n
+ *     n grid codes, n x values, n y values (ints), n values (doubles)
+ *     CRC32 checksum of everything above
+ *
+ * A binary file is only used if its version, the size and modification time of the
+ * csv file, and the checksum all match; otherwise it is treated as missing.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class BinaryDataFile
+{
+    private static final int MAGIC = 0x4C415044;   // "LAPD"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".bin";
+
+    /**
+     * Return the path of the binary file that belongs to the given csv file. It is in
+     * the same folder, with the extension replaced by ".bin".
+     */
+    public static Path sidecarFor(Path csvFile)
+    {
+        String name = csvFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return csvFile.resolveSibling(base + SUFFIX);
+    }
+
+    /**
+     * Return the path of the binary file that holds the rows of the given csv file
+     * inside an area. The edges of the area are added to the name; for no area this
+     * is the same as sidecarFor(csvFile).
+     */
+    public static Path sidecarFor(Path csvFile, BoundingBox area)
+    {
+        if (area == null) {
+            return sidecarFor(csvFile);
+        }
+        String name = sidecarFor(csvFile).getFileName().toString();
+        return csvFile.resolveSibling(name.substring(0, name.length() - SUFFIX.length()) + "." + area + SUFFIX);
+    }
+
+    /**
+     * Read a dataset from a binary file, if the file is present and up to date.
+     *
+     * @param file  The binary file
+     * @param csvSize  The current size of the csv file it was made from
+     * @param csvModified  The current modification time of the csv file, in milliseconds
+     * @return  The dataset, or null if the binary file is missing, stale or damaged
+     */
+    public static DataSet read(Path file, long csvSize, long csvModified)
+    {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < 32 || length > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != csvSize || buffer.getLong() != csvModified) {
+                return null;
+            }
+
+            int checksumPosition = (int) length - Long.BYTES;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(0, checksumPosition));
+            if (crc.getValue() != buffer.getLong(checksumPosition)) {
+                System.out.println("Ignoring damaged file " + file);
+                return null;
+            }
+
+            String pollutant = readString(buffer);
+            String year = readString(buffer);
+            String metric = readString(buffer);
+            String units = readString(buffer);
+
+            int rows = buffer.getInt();
+            if (rows < 0 || (long) rows * 20 != checksumPosition - buffer.position()) {
+                return null;
+            }
+            int[] gridCodes = new int[rows];
+            int[] xs = new int[rows];
+            int[] ys = new int[rows];
+            double[] values = new double[rows];
+            buffer.asIntBuffer().get(gridCodes);
+            buffer.position(buffer.position() + rows * Integer.BYTES);
+            buffer.asIntBuffer().get(xs);
+            buffer.position(buffer.position() + rows * Integer.BYTES);
+            buffer.asIntBuffer().get(ys);
+            buffer.position(buffer.position() + rows * Integer.BYTES);
+            buffer.asDoubleBuffer().get(values);
+
+            return new DataSet(pollutant, year, metric, units, gridCodes, xs, ys, values);
+        }
+        catch(IOException | RuntimeException e) {
+            System.out.println("Could not read file " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Write a dataset to a binary file. The file is written under a temporary name and
+     * then moved into place, so readers never see a half written file.
+     *
+     * @param dataSet  The dataset to write
+     * @param file  The binary file
+     * @param csvSize  The size of the csv file the dataset was read from
+     * @param csvModified  The modification time of the csv file, in milliseconds
+     */
+    public static void write(DataSet dataSet, Path file, long csvSize, long csvModified)
+        throws IOException
+    {
+        byte[][] header = {
+            encode(dataSet.getPollutant()), encode(dataSet.getYear()),
+            encode(dataSet.getMetric()), encode(dataSet.getUnits())
+        };
+        int rows = dataSet.size();
+        long length = 4 + 4 + 8 + 8 + 4 + (long) rows * 20 + 8;
+        for (byte[] text : header) {
+            length += 4 + text.length;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Dataset too large for a binary file");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(csvSize).putLong(csvModified);
+        for (byte[] text : header) {
+            buffer.putInt(text.length).put(text);
+        }
+        buffer.putInt(rows);
+        for (int i = 0; i < rows; i++) {
+            buffer.putInt(dataSet.getGridCode(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            buffer.putInt(dataSet.getX(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            buffer.putInt(dataSet.getY(i));
+        }
+        for (int i = 0; i < rows; i++) {
+            buffer.putDouble(dataSet.getValue(i));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putLong(crc.getValue());
+
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, buffer.array());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static byte[] encode(String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * A BoundingBox is a rectangle of the national grid, given by its edges in grid
+ * coordinates (metres east and north). Both edges are included.
+ *
+ * A bounding box can be given to the DataLoader and FileLoader, so that only the rows
+ * inside it are kept. The loader checks each row as soon as its x and y columns have
+ * been read, and skips the rest of the line for rows outside the box.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public final class BoundingBox
+{
+    /** The area of the map of London. */
+    public static final BoundingBox LONDON = new BoundingBox(510394, 168504, 553297, 193305);
+
+    private final int minX;
+    private final int minY;
+    private final int maxX;
+    private final int maxY;
+
+    /**
+     * Create a bounding box from its edges.
+     *
+     * @param minX  The left edge
+     * @param minY  The bottom edge
+     * @param maxX  The right edge
+     * @param maxY  The top edge
+     */
+    public BoundingBox(int minX, int minY, int maxX, int maxY)
+    {
+        if (maxX < minX || maxY < minY) {
+            throw new IllegalArgumentException("empty bounding box: " + minX + "," + minY + " - " + maxX + "," + maxY);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * Return true if the position is inside the box or on its edge.
+     */
+    public boolean contains(int x, int y)
+    {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    public int getMinX()
+    {
+        return minX;
+    }
+
+    public int getMinY()
+    {
+        return minY;
+    }
+
+    public int getMaxX()
+    {
+        return maxX;
+    }
+
+    public int getMaxY()
+    {
+        return maxY;
+    }
+
+    /**
+     * Return the edges as "minX_minY_maxX_maxY", which can be used in file names.
+     */
+    @Override
+    public String toString()
+    {
+        return minX + "_" + minY + "_" + maxX + "_" + maxY;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if (!(other instanceof BoundingBox)) {
+            return false;
+        }
+        BoundingBox box = (BoundingBox) other;
+        return minX == box.minX && minY == box.minY && maxX == box.maxX && maxY == box.maxY;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return ((minX * 31 + minY) * 31 + maxX) * 31 + maxY;
+    }
+}
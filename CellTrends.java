@@ -0,0 +1,149 @@
+import java.util.stream.IntStream;
+
+/**
+ * CellTrends holds the trend of every cell of a PollutionCube for each pollutant: the
+ * least-squares slope of its values over the years, in µg/m³ per year, and how well
+ * the straight line fits them (R², from 0 to 1).
+ *
+ * The years with a missing value are left out of a cell's fit; a cell with fewer than
+ * two years has no trend, and its slope and R² are NaN. If all values of a cell are
+ * the same, its slope is 0 and R² is 1.
+ *
+ * The trends are worked out in one pass over the cube's value array, with the cells
+ * and pollutants split over several threads.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class CellTrends
+{
+    private static final int POLLUTANTS = FileLoader.POLLUTANTS.size();
+    private static final int YEARS = FileLoader.YEARS.size();
+
+    private int version;
+    private int cellCount;
+    // by cell * POLLUTANTS + pollutant
+    private double[] slopes;
+    private double[] rSquared;
+    private int[] yearCounts;
+
+    private CellTrends(int cellCount, int version)
+    {
+        this.cellCount = cellCount;
+        this.version = version;
+        this.slopes = new double[cellCount * POLLUTANTS];
+        this.rSquared = new double[cellCount * POLLUTANTS];
+        this.yearCounts = new int[cellCount * POLLUTANTS];
+    }
+
+    /**
+     * Work out the trends of the values of a cube.
+     *
+     * @param values  The values of the cube, cell by cell, then by pollutant and year
+     *                (see PollutionCube)
+     * @param cellCount  The number of cells in the array
+     * @param version  The version of the cube the values belong to
+     */
+    public static CellTrends compute(double[] values, int cellCount, int version)
+    {
+        double[] years = new double[YEARS];
+        for (int k = 0; k < YEARS; k++) {
+            years[k] = Integer.parseInt(FileLoader.YEARS.get(k));
+        }
+        CellTrends trends = new CellTrends(cellCount, version);
+        IntStream.range(0, cellCount * POLLUTANTS).parallel().forEach(series -> trends.fit(values, series, years));
+        return trends;
+    }
+
+    /**
+     * Fit a line to the years of one cell and pollutant. The series are numbered in
+     * the same order as they are stored in the cube, so series i starts at i * YEARS.
+     */
+    private void fit(double[] values, int series, double[] years)
+    {
+        int from = series * YEARS;
+        int count = 0;
+        double sumX = 0;
+        double sumY = 0;
+        for (int k = 0; k < YEARS; k++) {
+            double value = values[from + k];
+            if (!Double.isNaN(value)) {
+                count++;
+                sumX += years[k];
+                sumY += value;
+            }
+        }
+        yearCounts[series] = count;
+        if (count < 2) {
+            slopes[series] = Double.NaN;
+            rSquared[series] = Double.NaN;
+            return;
+        }
+
+        double meanX = sumX / count;
+        double meanY = sumY / count;
+        double sxx = 0;
+        double sxy = 0;
+        double syy = 0;
+        for (int k = 0; k < YEARS; k++) {
+            double value = values[from + k];
+            if (!Double.isNaN(value)) {
+                double dx = years[k] - meanX;
+                double dy = value - meanY;
+                sxx += dx * dx;
+                sxy += dx * dy;
+                syy += dy * dy;
+            }
+        }
+        slopes[series] = sxy / sxx;
+        rSquared[series] = syy == 0 ? 1 : sxy * sxy / (sxx * syy);
+    }
+
+    /**
+     * Return the version of the cube the trends were worked out from.
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Return the number of cells.
+     */
+    public int getCellCount()
+    {
+        return cellCount;
+    }
+
+    /**
+     * Return the slope of a cell's values for a pollutant, in µg/m³ per year, or NaN
+     * if it has fewer than two years of data.
+     *
+     * @param pollutant  The position of the pollutant in FileLoader.POLLUTANTS
+     */
+    public double getSlope(int cell, int pollutant)
+    {
+        return slopes[cell * POLLUTANTS + pollutant];
+    }
+
+    /**
+     * Return how well the trend line fits a cell's values for a pollutant, from 0 to
+     * 1, or NaN if it has fewer than two years of data.
+     *
+     * @param pollutant  The position of the pollutant in FileLoader.POLLUTANTS
+     */
+    public double getRSquared(int cell, int pollutant)
+    {
+        return rSquared[cell * POLLUTANTS + pollutant];
+    }
+
+    /**
+     * Return the number of years with data that the trend of a cell is based on.
+     *
+     * @param pollutant  The position of the pollutant in FileLoader.POLLUTANTS
+     */
+    public int getYearCount(int cell, int pollutant)
+    {
+        return yearCounts[cell * POLLUTANTS + pollutant];
+    }
+}
@@ -0,0 +1,79 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class CellTrendsTest {
+
+    private static DataSet createYear(String year, double value) {
+        DataSet dataSet = new DataSet("NO2", year, "annual mean", "µg/m³");
+        dataSet.addData(1, 500, 500, value);
+        dataSet.addData(2, 1500, 500, 40);
+        return dataSet;
+    }
+
+    @Test
+    public void testStraightLineHasItsSlopeAndPerfectFit() {
+        PollutionCube cube = new PollutionCube((BoundingBox) null);
+        for (int i = 0; i < FileLoader.YEARS.size(); i++) {
+            cube.add("NO2", FileLoader.YEARS.get(i), createYear(FileLoader.YEARS.get(i), 30 - 1.5 * i));
+        }
+
+        CellTrends trends = cube.getTrends();
+        int no2 = PollutionCube.pollutantIndex("NO2");
+        int cell = cube.cellOf(1);
+        assertEquals(-1.5, trends.getSlope(cell, no2), 1e-9);
+        assertEquals(1.0, trends.getRSquared(cell, no2), 1e-9);
+        assertEquals(FileLoader.YEARS.size(), trends.getYearCount(cell, no2));
+        // a cell whose values stay the same
+        assertEquals(0.0, trends.getSlope(cube.cellOf(2), no2), 1e-9);
+        assertEquals(1.0, trends.getRSquared(cube.cellOf(2), no2));
+        // no data for the other pollutants
+        assertTrue(Double.isNaN(trends.getSlope(cell, PollutionCube.pollutantIndex("PM10"))));
+    }
+
+    @Test
+    public void testMissingYearsAreLeftOut() {
+        PollutionCube cube = new PollutionCube((BoundingBox) null);
+        cube.add("NO2", "2018", createYear("2018", 10));
+        cube.add("NO2", "2019", createYear("2019", -1));
+        cube.add("NO2", "2020", createYear("2020", 14));
+        cube.add("NO2", "2021", createYear("2021", 12));
+
+        CellTrends trends = cube.getTrends();
+        int no2 = PollutionCube.pollutantIndex("NO2");
+        int cell = cube.cellOf(1);
+        assertEquals(3, trends.getYearCount(cell, no2));
+        // x 2018, 2020, 2021 (mean 2019.667), y 10, 14, 12 (mean 12)
+        double sxx = 25.0 / 9 + 1.0 / 9 + 16.0 / 9;
+        double sxy = (-5.0 / 3) * -2 + (1.0 / 3) * 2 + (4.0 / 3) * 0;
+        assertEquals(sxy / sxx, trends.getSlope(cell, no2), 1e-9);
+        assertEquals(sxy * sxy / (sxx * 8), trends.getRSquared(cell, no2), 1e-9);
+    }
+
+    @Test
+    public void testFewerThanTwoYearsHaveNoTrend() {
+        PollutionCube cube = new PollutionCube((BoundingBox) null);
+        cube.add("NO2", "2020", createYear("2020", 10));
+
+        CellTrends trends = cube.getTrends();
+        int no2 = PollutionCube.pollutantIndex("NO2");
+        assertEquals(1, trends.getYearCount(cube.cellOf(1), no2));
+        assertTrue(Double.isNaN(trends.getSlope(cube.cellOf(1), no2)));
+        assertTrue(Double.isNaN(trends.getRSquared(cube.cellOf(1), no2)));
+    }
+
+    @Test
+    public void testTrendsAreKeptUntilDataIsAdded() {
+        PollutionCube cube = new PollutionCube((BoundingBox) null);
+        cube.add("NO2", "2018", createYear("2018", 10));
+        cube.add("NO2", "2019", createYear("2019", 12));
+
+        CellTrends trends = cube.getTrends();
+        assertSame(trends, cube.getTrends());
+        assertEquals(2.0, trends.getSlope(cube.cellOf(1), 0), 1e-9);
+
+        cube.add("NO2", "2019", createYear("2019", 8));
+        CellTrends updated = cube.getTrends();
+        assertNotSame(trends, updated);
+        assertEquals(-2.0, updated.getSlope(cube.cellOf(1), 0), 1e-9);
+    }
+}
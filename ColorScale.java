@@ -0,0 +1,236 @@
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A ColorScale maps pollution values to overlay colours through a lookup table.
+ *
+ * Each pollutant has three thresholds (low, medium, high) that split its values into
+ * four bands. The table covers the values from 0 up to one band width above the high
+ * threshold in small, equal steps, and holds a premultiplied ARGB colour for every
+ * step; larger values use the last entry. The step size divides the thresholds
+ * exactly, so every value falls into the same band as a direct comparison would give.
+ * Looking up a colour is a division and an array access.
+ *
+ * There are two schemes: the four coloured bands (green, yellow, orange, red), and a
+ * continuous gradient through the viridis colours, which changes evenly in perceived
+ * brightness.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class ColorScale
+{
+    /**
+     * The ways values can be coloured.
+     */
+    public enum Scheme
+    {
+        BANDS("Bands"),
+        GRADIENT("Gradient");
+
+        private String label;
+
+        Scheme(String label)
+        {
+            this.label = label;
+        }
+
+        @Override
+        public String toString()
+        {
+            return label;
+        }
+    }
+
+    /** The number of bands values are split into. */
+    public static final int BANDS = 4;
+    private static final int STEPS_PER_BAND = 64;
+    private static final double OPACITY = 0.4;
+    private static final String[] BAND_NAMES = {"Low", "Medium", "High", "Very High"};
+    private static final int[][] BAND_RGB = {
+        {0, 255, 0}, {255, 255, 0}, {255, 165, 0}, {255, 0, 0}
+    };
+    // viridis, from dark purple to yellow, at nine evenly spaced points
+    private static final int[][] GRADIENT_RGB = {
+        {68, 1, 84}, {71, 44, 122}, {59, 81, 139}, {44, 113, 142}, {33, 144, 141},
+        {39, 173, 129}, {92, 200, 99}, {170, 220, 50}, {253, 231, 37}
+    };
+
+    private static final Map<String, ColorScale> SCALES = new ConcurrentHashMap<>();
+
+    private Scheme scheme;
+    private double[] thresholds;
+    private double step;
+    private int[] table;
+
+    /**
+     * Return the colour scale for a pollutant and scheme. Scales are created once and
+     * shared.
+     *
+     * @param pollutant The pollutant type (NO2, PM10, PM2.5)
+     */
+    public static ColorScale forPollutant(String pollutant, Scheme scheme)
+    {
+        return SCALES.computeIfAbsent(pollutant.toUpperCase() + "/" + scheme,
+                                      key -> new ColorScale(thresholdsFor(pollutant), scheme));
+    }
+
+    /**
+     * Return the low, medium and high thresholds for a pollutant, in µg/m³.
+     */
+    private static double[] thresholdsFor(String pollutant)
+    {
+        if (pollutant.equalsIgnoreCase("PM10")) {
+            return new double[] {15, 30, 45};
+        }
+        else if (pollutant.equalsIgnoreCase("PM2.5")) {
+            return new double[] {10, 20, 30};
+        }
+        else {
+            return new double[] {20, 40, 60};
+        }
+    }
+
+    /**
+     * Create a colour scale for evenly spaced thresholds.
+     */
+    private ColorScale(double[] thresholds, Scheme scheme)
+    {
+        this.scheme = scheme;
+        this.thresholds = thresholds;
+        this.step = thresholds[0] / STEPS_PER_BAND;
+        this.table = new int[BANDS * STEPS_PER_BAND];
+        for (int i = 0; i < table.length; i++) {
+            if (scheme == Scheme.BANDS) {
+                int[] rgb = BAND_RGB[i / STEPS_PER_BAND];
+                table[i] = OverlayRenderer.premultiply(rgb[0], rgb[1], rgb[2], OPACITY);
+            }
+            else {
+                table[i] = gradientColor((double) i / (table.length - 1));
+            }
+        }
+    }
+
+    /**
+     * Interpolate the gradient at a position from 0 to 1.
+     */
+    private static int gradientColor(double position)
+    {
+        double scaled = position * (GRADIENT_RGB.length - 1);
+        int index = Math.min((int) scaled, GRADIENT_RGB.length - 2);
+        double t = scaled - index;
+        int[] from = GRADIENT_RGB[index];
+        int[] to = GRADIENT_RGB[index + 1];
+        return OverlayRenderer.premultiply((int) Math.round(from[0] + (to[0] - from[0]) * t),
+                                           (int) Math.round(from[1] + (to[1] - from[1]) * t),
+                                           (int) Math.round(from[2] + (to[2] - from[2]) * t),
+                                           OPACITY);
+    }
+
+    /**
+     * Return the position of a value in the lookup table.
+     */
+    private int indexOf(double value)
+    {
+        if (!(value > 0)) {
+            return 0;
+        }
+        return (int) Math.min(value / step, table.length - 1);
+    }
+
+    /**
+     * Return the overlay colour for a value, as premultiplied ARGB.
+     */
+    public int colorFor(double value)
+    {
+        return table[indexOf(value)];
+    }
+
+    /**
+     * Return the band of a value: 0 (low) to 3 (very high).
+     */
+    public int bandOf(double value)
+    {
+        return indexOf(value) / STEPS_PER_BAND;
+    }
+
+    public Scheme getScheme()
+    {
+        return scheme;
+    }
+
+    /**
+     * Return the lowest value of a band.
+     */
+    public double getBandStart(int band)
+    {
+        return band == 0 ? 0 : thresholds[band - 1];
+    }
+
+    /**
+     * Return the largest value the table distinguishes; larger values share its colour.
+     */
+    public double getMaximum()
+    {
+        return table.length * step;
+    }
+
+    /**
+     * Return the name of a band, such as "Medium".
+     */
+    public String getBandName(int band)
+    {
+        return BAND_NAMES[band];
+    }
+
+    /**
+     * Return the colour of a band at full opacity, for the legend.
+     */
+    public Color getLegendColor(int band)
+    {
+        return toOpaqueColor(table[band * STEPS_PER_BAND + STEPS_PER_BAND / 2]);
+    }
+
+    /**
+     * Create an image of the whole table from the lowest to the highest value, at full
+     * opacity, for the legend of the gradient.
+     */
+    public WritableImage createLegendImage(int width, int height)
+    {
+        int[] pixels = new int[width * height];
+        for (int x = 0; x < width; x++) {
+            int color = table[x * (table.length - 1) / Math.max(width - 1, 1)];
+            int opaque = 0xFF000000 | unpremultiply(color);
+            for (int y = 0; y < height; y++) {
+                pixels[y * width + x] = opaque;
+            }
+        }
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return image;
+    }
+
+    private static Color toOpaqueColor(int color)
+    {
+        int rgb = unpremultiply(color);
+        return Color.rgb((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+    }
+
+    /**
+     * Return the RGB part of a premultiplied colour, divided by its alpha again.
+     */
+    static int unpremultiply(int color)
+    {
+        int alpha = color >>> 24;
+        if (alpha == 0) {
+            return 0;
+        }
+        int r = Math.min(255, (((color >> 16) & 0xFF) * 255 + alpha / 2) / alpha);
+        int g = Math.min(255, (((color >> 8) & 0xFF) * 255 + alpha / 2) / alpha);
+        int b = Math.min(255, ((color & 0xFF) * 255 + alpha / 2) / alpha);
+        return r << 16 | g << 8 | b;
+    }
+}
@@ -0,0 +1,40 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class ColorScaleTest {
+
+    @Test
+    public void testBandsSplitExactlyAtThresholds() {
+        String[] pollutants = {"NO2", "PM10", "PM2.5"};
+        double[][] thresholds = {{20, 40, 60}, {15, 30, 45}, {10, 20, 30}};
+
+        for (int p = 0; p < pollutants.length; p++) {
+            ColorScale scale = ColorScale.forPollutant(pollutants[p], ColorScale.Scheme.BANDS);
+            for (int t = 0; t < 3; t++) {
+                double threshold = thresholds[p][t];
+                assertEquals(t, scale.bandOf(Math.nextDown(threshold)));
+                assertEquals(t + 1, scale.bandOf(threshold));
+            }
+            assertEquals(0, scale.bandOf(0));
+            assertEquals(3, scale.bandOf(1000));
+        }
+    }
+
+    @Test
+    public void testBandColorsMatchTheOverlayColors() {
+        ColorScale scale = ColorScale.forPollutant("NO2", ColorScale.Scheme.BANDS);
+
+        assertEquals(OverlayRenderer.premultiply(0, 255, 0, 0.4), scale.colorFor(5));
+        assertEquals(OverlayRenderer.premultiply(255, 255, 0, 0.4), scale.colorFor(25));
+        assertEquals(OverlayRenderer.premultiply(255, 165, 0, 0.4), scale.colorFor(45));
+        assertEquals(OverlayRenderer.premultiply(255, 0, 0, 0.4), scale.colorFor(65));
+    }
+
+    @Test
+    public void testGradientChangesWithValueInsideABand() {
+        ColorScale scale = ColorScale.forPollutant("PM10", ColorScale.Scheme.GRADIENT);
+
+        assertTrue(scale.colorFor(2) != scale.colorFor(12));
+        assertEquals(scale.colorFor(scale.getMaximum()), scale.colorFor(500));
+    }
+}
@@ -0,0 +1,462 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A DataFileParser reads the contents of a DEFRA air pollution csv file directly from
+ * its bytes.
+ *
+ * The parser does not create a String, an array or an exception per data row: each
+ * field is copied into a small scratch buffer and converted to an int or a double in
+ * place, and the converted values are written straight into the columns of a DataSet.
+ * Fields that are not readable numbers (such as "MISSING") are stored as -1, just as
+ * DataSet.addData(String[]) does.
+ *
+ * The bytes come either from a stream, which is read in blocks, or from a buffer that
+ * already holds the complete input.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class DataFileParser
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // longest field we expect; longer fields are read as missing values
+    private static final int MAX_FIELD_LENGTH = 64;
+    // doubles with at most this many significant digits convert exactly in one step
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private ReadableByteChannel channel;
+    private ByteBuffer buffer;
+    // read position and end of the valid bytes in the buffer
+    private int position;
+    private int limit;
+
+    private byte[] field;
+    private int fieldLength;
+    private boolean endOfLine;
+    // only rows inside this area are kept, or all rows if it is null
+    private BoundingBox area;
+
+    /**
+     * Create a parser that reads from a stream.
+     */
+    public DataFileParser(InputStream in)
+    {
+        this.channel = Channels.newChannel(in);
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.position = 0;
+        this.limit = 0;
+        this.field = new byte[MAX_FIELD_LENGTH];
+    }
+
+    /**
+     * Create a parser for input that is held completely in a buffer. Parsing
+     * starts at the buffer's position and ends at its limit.
+     */
+    public DataFileParser(ByteBuffer data)
+    {
+        this.channel = null;
+        this.buffer = data;
+        this.position = data.position();
+        this.limit = data.limit();
+        this.field = new byte[MAX_FIELD_LENGTH];
+    }
+
+    /**
+     * Keep only the rows inside the given area, or all rows if it is null. Each row
+     * is checked as soon as its x and y columns have been read; for rows outside the
+     * area the value is not parsed and nothing is added to the dataset.
+     */
+    public void setArea(BoundingBox area)
+    {
+        this.area = area;
+    }
+
+    /**
+     * Read the header of a data file into a new, empty DataSet.
+     *
+     * The first four lines of the file hold the pollutant, year, metric and units. Each
+     * of them has the format
+     *    DATA,,,
+     * and we keep only the first column. The next two lines (an empty line and the
+     * column labels) are discarded.
+     *
+     * @return An empty DataSet with the header information of the file
+     */
+    public DataSet readHeader()
+        throws IOException
+    {
+        String pollutant = readHeaderField();
+        String year = readHeaderField();
+        String metric = readHeaderField();
+        String units = readHeaderField();
+
+        skipLine();
+        skipLine();
+
+        return new DataSet(pollutant, year, metric, units);
+    }
+
+    /**
+     * Return the position of the next byte to be read. For a parser over a complete
+     * buffer this is an index into that buffer.
+     */
+    public int getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Read all remaining data lines and add them to the given dataset. Blank lines
+     * are skipped. Rows with fewer than four columns get -1 for the missing ones.
+     */
+    public void readData(DataSet dataSet)
+        throws IOException
+    {
+        readData(dataSet, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read at most the given number of data lines and add them to the given dataset,
+     * in the same way as readData(DataSet). Lines outside the area are counted as
+     * read, though they are not added.
+     *
+     * @return True if the end of the data was reached
+     */
+    public boolean readData(DataSet dataSet, int maxRows)
+        throws IOException
+    {
+        return readRows(dataSet::addData, maxRows);
+    }
+
+    /**
+     * Read all remaining data lines and give each row inside the area to the
+     * consumer, in the same way as readData(DataSet), without storing them.
+     */
+    public void readRows(DataRowConsumer consumer)
+        throws IOException
+    {
+        readRows(consumer, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Read at most the given number of data lines and give each row inside the area
+     * to the consumer. Lines outside the area are counted as read.
+     *
+     * @return True if the end of the data was reached
+     */
+    public boolean readRows(DataRowConsumer consumer, int maxRows)
+        throws IOException
+    {
+        int rows = 0;
+        while (rows < maxRows) {
+            int first = peekByte();
+            if (first == -1) {
+                return true;
+            }
+            if (first == '\n' || first == '\r') {
+                nextByte();
+                continue;
+            }
+
+            int gridCode = readIntField();
+            int x = endOfLine ? -1 : readIntField();
+            int y = endOfLine ? -1 : readIntField();
+            rows++;
+            if (area != null && !area.contains(x, y)) {
+                if (!endOfLine) {
+                    skipLine();
+                }
+                continue;
+            }
+            double value = endOfLine ? -1.0 : readDoubleField();
+            if (!endOfLine) {
+                skipLine();
+            }
+            consumer.accept(gridCode, x, y, value);
+        }
+        return peekByte() == -1;
+    }
+
+    /**
+     * Read one header line and return the text of its first column.
+     */
+    private String readHeaderField()
+        throws IOException
+    {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        boolean inFirstColumn = true;
+        int b;
+        while ((b = nextByte()) != -1 && b != '\n') {
+            if (b == ',') {
+                inFirstColumn = false;
+            }
+            else if (inFirstColumn && b != '\r') {
+                text.write(b);
+            }
+        }
+        return text.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Skip everything up to and including the next line break.
+     */
+    private void skipLine()
+        throws IOException
+    {
+        int b;
+        while ((b = nextByte()) != -1 && b != '\n') {
+            // skip
+        }
+    }
+
+    /**
+     * Copy the next field into the scratch buffer. The field ends at a comma, a line
+     * break or the end of the input; endOfLine records which of these it was. Carriage
+     * returns are dropped. If the field is too long for the scratch buffer, fieldLength
+     * is set to -1.
+     */
+    private void readField()
+        throws IOException
+    {
+        fieldLength = 0;
+        endOfLine = false;
+        while (true) {
+            int b = nextByte();
+            if (b == ',') {
+                return;
+            }
+            if (b == '\n' || b == -1) {
+                endOfLine = true;
+                return;
+            }
+            if (b == '\r') {
+                continue;
+            }
+            if (fieldLength >= 0 && fieldLength < field.length) {
+                field[fieldLength++] = (byte) b;
+            }
+            else {
+                fieldLength = -1;
+            }
+        }
+    }
+
+    private int readIntField()
+        throws IOException
+    {
+        readField();
+        return parseInt(field, fieldLength);
+    }
+
+    private double readDoubleField()
+        throws IOException
+    {
+        readField();
+        return parseDouble(field, fieldLength);
+    }
+
+    /**
+     * Convert the first length bytes of the array to an int, with the same rules as
+     * Integer.parseInt.
+     *
+     * @return  The int value, or -1 if the bytes are not a readable number
+     */
+    public static int parseInt(byte[] bytes, int length)
+    {
+        if (length <= 0) {
+            return -1;
+        }
+        int i = 0;
+        boolean negative = false;
+        if (bytes[0] == '-' || bytes[0] == '+') {
+            negative = bytes[0] == '-';
+            i++;
+            if (length == 1) {
+                return -1;
+            }
+        }
+
+        // accumulate negatively so that Integer.MIN_VALUE can be read
+        long result = 0;
+        for (; i < length; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            result = result * 10 - digit;
+            if (result < Integer.MIN_VALUE) {
+                return -1;
+            }
+        }
+        if (!negative && result == Integer.MIN_VALUE) {
+            return -1;
+        }
+        return (int) (negative ? result : -result);
+    }
+
+    /**
+     * Convert the first length bytes of the array to a double. Decimal numbers with an
+     * optional sign, fraction and exponent are accepted; the result is the same as
+     * Double.parseDouble gives. Anything else (including "NaN" and "Infinity") is
+     * treated as missing.
+     *
+     * @return  The double value, or -1.0 if the bytes are not a readable number
+     */
+    public static double parseDouble(byte[] bytes, int length)
+    {
+        int start = 0;
+        int end = length;
+        while (start < end && bytes[start] <= ' ') {
+            start++;
+        }
+        while (end > start && bytes[end - 1] <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return -1.0;
+        }
+
+        int i = start;
+        boolean negative = false;
+        if (bytes[i] == '-' || bytes[i] == '+') {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+        boolean inFraction = false;
+        boolean exact = true;
+        for (; i < end; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                anyDigits = true;
+                if (mantissa == 0 && b == '0') {
+                    // leading zeros carry no precision
+                    if (inFraction) {
+                        exponent--;
+                    }
+                }
+                else if (significantDigits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    significantDigits++;
+                    if (inFraction) {
+                        exponent--;
+                    }
+                }
+                else {
+                    exact = false;
+                    if (!inFraction) {
+                        exponent++;
+                    }
+                }
+            }
+            else if (b == '.' && !inFraction) {
+                inFraction = true;
+            }
+            else {
+                break;
+            }
+        }
+        if (!anyDigits) {
+            return -1.0;
+        }
+
+        if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            if (i == end) {
+                return -1.0;
+            }
+            int exponentValue = 0;
+            for (; i < end; i++) {
+                int digit = bytes[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1.0;
+                }
+                if (exponentValue < 100000) {
+                    exponentValue = exponentValue * 10 + digit;
+                }
+            }
+            exponent += negativeExponent ? -exponentValue : exponentValue;
+        }
+        if (i != end) {
+            return -1.0;
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        }
+        else if (exact && significantDigits <= MAX_EXACT_DIGITS
+                 && exponent >= -22 && exponent <= 22) {
+            // both operands are exact, so a single operation rounds correctly
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+                                 : mantissa * POWERS_OF_TEN[exponent];
+        }
+        else {
+            // rare: too many digits for the fast path; the syntax is already checked
+            return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Return the next byte of the input without consuming it, or -1 at the end.
+     */
+    private int peekByte()
+        throws IOException
+    {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer.get(position) & 0xFF;
+    }
+
+    /**
+     * Return the next byte of the input, or -1 at the end.
+     */
+    private int nextByte()
+        throws IOException
+    {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer.get(position++) & 0xFF;
+    }
+
+    /**
+     * Read the next block of the stream into the buffer.
+     *
+     * @return false if there is no more input
+     */
+    private boolean fill()
+        throws IOException
+    {
+        if (channel == null) {
+            return false;
+        }
+        buffer.clear();
+        int read;
+        do {
+            read = channel.read(buffer);
+        } while (read == 0);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+}
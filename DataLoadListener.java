@@ -0,0 +1,19 @@
+/**
+ * A DataLoadListener is told about the rows of a dataset while its file is still
+ * being loaded, so that they can be shown before the whole file has been read.
+ *
+ * Rows are reported in file order, in batches. The listener is called on the thread
+ * that loads the file, and the dataset keeps growing after the call returns, so the
+ * rows should be used during the call.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public interface DataLoadListener
+{
+    /**
+     * Called when the rows from one index up to (not including) another have been
+     * added to the dataset.
+     */
+    void rowsLoaded(DataSet dataSet, int from, int to);
+}
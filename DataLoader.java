@@ -1,5 +1,16 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * This class loads a UK DEFRA air pollution file from disk and returns the file data
@@ -14,19 +25,460 @@ import java.net.*;
 public class DataLoader
 {
     private static final String COMMA_DELIMITER = ",";
+    // files whose data is smaller than this are not worth splitting
+    private static final int MIN_PARALLEL_CHUNK = 1024 * 1024;
+    // while a listener is told about the rows, files are split into more, smaller
+    // chunks, so that the first ones are finished early
+    private static final int STREAMING_CHUNKS_PER_THREAD = 8;
+    // rows read at a time by a single parser while a listener is told about them
+    private static final int BATCH_ROWS = 16 * 1024;
+    
+    private boolean memoryMapped;
+    private boolean binaryCache;
+    private int parallelism;
+    private ForkJoinPool pool;
+    
+    /**
+     * Create a DataLoader. Files on the file system are memory mapped by default, and
+     * are parsed on a single thread. Binary files are not used unless switched on.
+     */
+    public DataLoader()
+    {
+        memoryMapped = true;
+        binaryCache = false;
+        parallelism = 1;
+    }
+    
+    /**
+     * Choose whether loaded csv files are also stored as binary files (see
+     * BinaryDataFile). When this is on, the first load of a csv file writes a binary
+     * copy next to it, and later loads read that copy instead of parsing the text.
+     * The binary copy is rebuilt when the size or modification time of the csv file
+     * changes.
+     */
+    public void setBinaryCache(boolean binaryCache)
+    {
+        this.binaryCache = binaryCache;
+    }
+    
+    /**
+     * Set how many threads may parse one file. With a parallelism above 1, the data
+     * lines of a memory mapped file are split into ranges that start and end on line
+     * breaks; each range is parsed on a fork-join worker, and the results are joined
+     * in file order. The result is the same as a sequential parse.
+     */
+    public synchronized void setParallelism(int parallelism)
+    {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        if (parallelism != this.parallelism && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        this.parallelism = parallelism;
+    }
+    
+    /**
+     * Return how many threads may parse one file.
+     */
+    public synchronized int getParallelism()
+    {
+        return parallelism;
+    }
+    
+    /**
+     * Choose how files on the file system are read. When memory mapping is on, a file
+     * is mapped into memory with a FileChannel and parsed straight from the page cache.
+     * When it is off, the file is streamed through a read buffer. Resources that do not
+     * live on the file system (for example inside a jar) are always streamed.
+     */
+    public void setMemoryMapped(boolean memoryMapped)
+    {
+        this.memoryMapped = memoryMapped;
+    }
+    
+    /**
+     * Return true if files on the file system are memory mapped.
+     */
+    public boolean isMemoryMapped()
+    {
+        return memoryMapped;
+    }
  
     /** 
      * Read a data file from disk. The data must be a csv file, and must be in the
      * DEFRA air pollution file format. The data is returned in a DataSet object.
      * 
+     * @param fileName The name of the file, relative to this class
      * @return A DataSet object holding the complete dataset
      */
     public DataSet loadDataFile(String fileName) 
     {
+        return loadDataFile(fileName, null);
+    }
+    
+    /** 
+     * Read a data file from disk, telling the listener about the rows in batches
+     * while the file is read.
+     * 
+     * @param fileName The name of the file, relative to this class
+     * @param listener The listener to tell about the rows, or null
+     * @return A DataSet object holding the complete dataset
+     */
+    public DataSet loadDataFile(String fileName, DataLoadListener listener) 
+    {
+        return loadDataFile(fileName, null, listener);
+    }
+    
+    /** 
+     * Read the rows of a data file that lie inside an area, telling the listener
+     * about them in batches while the file is read. Rows outside the area are skipped
+     * while parsing, and never stored.
+     * 
+     * @param fileName The name of the file, relative to this class
+     * @param area The area to keep, or null for all rows
+     * @param listener The listener to tell about the rows, or null
+     * @return A DataSet object holding the rows inside the area
+     */
+    public DataSet loadDataFile(String fileName, BoundingBox area, DataLoadListener listener) 
+    {
+        URL url = getClass().getResource(fileName);
+        if (url == null) {
+            System.out.println("Could not find file " + fileName);
+            return null;
+        }
+        if (url.getProtocol().equals("file")) {
+            try {
+                return loadDataFile(Path.of(url.toURI()), area, listener);
+            }
+            catch(URISyntaxException e) {
+                System.out.println("Could not read file " + fileName);
+                e.printStackTrace();
+                return null;
+            }
+        }
+        
+        // the resource is not a plain file (e.g. it is inside a jar): stream it
         System.out.println("Loading file " + fileName + "...");
+        try (InputStream in = url.openStream()) {
+            DataFileParser parser = new DataFileParser(in);
+            parser.setArea(area);
+            DataSet dataSet = readDataFile(parser, listener);
+            System.out.println("Loading file... done.");
+            return dataSet;
+        }
+        catch(IOException e) {
+            System.out.println("Could not read file " + fileName);
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+    /** 
+     * Read a data file from the given path. The data must be a csv file in the
+     * DEFRA air pollution file format.
+     * 
+     * The file is parsed directly from its bytes by a DataFileParser, which writes the
+     * values straight into the columns of the DataSet.
+     * 
+     * @return A DataSet object holding the complete dataset, or null if the file
+     *         could not be read
+     */
+    public DataSet loadDataFile(Path path) 
+    {
+        return loadDataFile(path, null);
+    }
+    
+    /** 
+     * Read a data file from the given path, telling the listener about the rows in
+     * batches while the file is read. A binary copy of the file is read at once, and
+     * reported as a single batch.
+     * 
+     * @param listener The listener to tell about the rows, or null
+     * @return A DataSet object holding the complete dataset, or null if the file
+     *         could not be read
+     */
+    public DataSet loadDataFile(Path path, DataLoadListener listener) 
+    {
+        return loadDataFile(path, null, listener);
+    }
+    
+    /** 
+     * Read the rows of a data file that lie inside an area, telling the listener
+     * about them in batches while the file is read. Rows outside the area are skipped
+     * while parsing, and never stored. Each area has its own binary copy of the file.
+     * 
+     * @param area The area to keep, or null for all rows
+     * @param listener The listener to tell about the rows, or null
+     * @return A DataSet object holding the rows inside the area, or null if the file
+     *         could not be read
+     */
+    public DataSet loadDataFile(Path path, BoundingBox area, DataLoadListener listener) 
+    {
+        System.out.println("Loading file " + path + "...");
         
+        try {
+            long csvSize = Files.size(path);
+            long csvModified = Files.getLastModifiedTime(path).toMillis();
+            Path binaryFile = BinaryDataFile.sidecarFor(path, area);
+            if (binaryCache) {
+                DataSet dataSet = BinaryDataFile.read(binaryFile, csvSize, csvModified);
+                if (dataSet != null) {
+                    if (listener != null && dataSet.size() > 0) {
+                        listener.rowsLoaded(dataSet, 0, dataSet.size());
+                    }
+                    System.out.println("Loading file... done (from " + binaryFile.getFileName() + ").");
+                    return dataSet;
+                }
+            }
+            
+            DataSet dataSet;
+            if (memoryMapped) {
+                dataSet = readDataFile(mapFile(path), area, listener);
+            }
+            else {
+                try (InputStream in = Files.newInputStream(path)) {
+                    DataFileParser parser = new DataFileParser(in);
+                    parser.setArea(area);
+                    dataSet = readDataFile(parser, listener);
+                }
+            }
+            if (binaryCache) {
+                writeBinaryFile(dataSet, binaryFile, csvSize, csvModified);
+            }
+            System.out.println("Loading file... done.");
+            return dataSet;
+        }        
+        catch(IOException e) {
+            System.out.println("Could not read file " + path);
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+    /** 
+     * Read a data file from disk and give each row inside an area to the consumer,
+     * without storing the rows. Memory use does not grow with the size of the file.
+     * The file is always parsed on the calling thread, and binary copies are not used.
+     * 
+     * @param fileName The name of the file, relative to this class
+     * @param area The area to keep, or null for all rows
+     * @param consumer The consumer to give the rows to
+     * @return An empty DataSet with the header information of the file, or null if
+     *         the file could not be read
+     */
+    public DataSet scanDataFile(String fileName, BoundingBox area, DataRowConsumer consumer) 
+    {
         URL url = getClass().getResource(fileName);
-        try (BufferedReader br = new BufferedReader(new FileReader(new File(url.toURI()).getAbsolutePath()))) {
+        if (url == null) {
+            System.out.println("Could not find file " + fileName);
+            return null;
+        }
+        try {
+            if (url.getProtocol().equals("file")) {
+                return scanDataFile(Path.of(url.toURI()), area, consumer);
+            }
+            try (InputStream in = url.openStream()) {
+                return scanDataFile(new DataFileParser(in), area, consumer);
+            }
+        }
+        catch(IOException | URISyntaxException e) {
+            System.out.println("Could not read file " + fileName);
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+    /** 
+     * Read a data file from the given path and give each row inside an area to the
+     * consumer, without storing the rows. The file is memory mapped or streamed, as
+     * for loadDataFile.
+     * 
+     * @param area The area to keep, or null for all rows
+     * @param consumer The consumer to give the rows to
+     * @return An empty DataSet with the header information of the file, or null if
+     *         the file could not be read
+     */
+    public DataSet scanDataFile(Path path, BoundingBox area, DataRowConsumer consumer) 
+    {
+        try {
+            if (memoryMapped) {
+                return scanDataFile(new DataFileParser(mapFile(path)), area, consumer);
+            }
+            try (InputStream in = Files.newInputStream(path)) {
+                return scanDataFile(new DataFileParser(in), area, consumer);
+            }
+        }
+        catch(IOException e) {
+            System.out.println("Could not read file " + path);
+            e.printStackTrace();
+            return null;
+        }
+    }
+    
+    /**
+     * Read the header, then give the data lines inside the area to the consumer.
+     */
+    private DataSet scanDataFile(DataFileParser parser, BoundingBox area, DataRowConsumer consumer)
+        throws IOException
+    {
+        parser.setArea(area);
+        DataSet header = parser.readHeader();
+        parser.readRows(consumer);
+        return header;
+    }
+    
+    /**
+     * Store a dataset as a binary file. A failure (for example a read-only folder)
+     * is reported but does not stop the load.
+     */
+    private void writeBinaryFile(DataSet dataSet, Path binaryFile, long csvSize, long csvModified)
+    {
+        try {
+            BinaryDataFile.write(dataSet, binaryFile, csvSize, csvModified);
+        }
+        catch(IOException e) {
+            System.out.println("Could not write file " + binaryFile + ": " + e);
+        }
+    }
+    
+    /**
+     * Map the complete file into memory, read only. The mapping stays valid after the
+     * channel is closed, and is released when the buffer is garbage collected.
+     */
+    private MappedByteBuffer mapFile(Path path)
+        throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + path);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+    
+    /**
+     * Read the header and all data lines from a buffer holding the complete file,
+     * in parallel if the parallelism and the size of the file allow it. The chunks
+     * are joined, and reported to the listener, in file order as they finish.
+     */
+    private DataSet readDataFile(ByteBuffer buffer, BoundingBox area, DataLoadListener listener)
+        throws IOException
+    {
+        DataFileParser parser = new DataFileParser(buffer);
+        parser.setArea(area);
+        DataSet dataSet = parser.readHeader();
+        
+        int start = parser.getPosition();
+        int end = buffer.limit();
+        int maxChunks = getParallelism() == 1 ? 1 
+                        : listener == null ? getParallelism() : getParallelism() * STREAMING_CHUNKS_PER_THREAD;
+        int chunks = Math.min(maxChunks, (end - start) / MIN_PARALLEL_CHUNK);
+        if (chunks <= 1) {
+            readData(parser, dataSet, listener);
+            return dataSet;
+        }
+        
+        // split the data lines into ranges, moving each boundary past the next line break
+        int[] bounds = new int[chunks + 1];
+        bounds[0] = start;
+        bounds[chunks] = end;
+        for (int i = 1; i < chunks; i++) {
+            int bound = Math.max(bounds[i - 1], start + (int) ((long) (end - start) * i / chunks));
+            while (bound < end && buffer.get(bound - 1) != '\n') {
+                bound++;
+            }
+            bounds[i] = bound;
+        }
+        
+        ForkJoinPool workers = getPool();
+        List<ForkJoinTask<DataSet>> tasks = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            ByteBuffer range = buffer.slice(bounds[i], bounds[i + 1] - bounds[i]);
+            tasks.add(workers.submit(() -> {
+                DataSet chunk = new DataSet(dataSet.getPollutant(), dataSet.getYear(),
+                                            dataSet.getMetric(), dataSet.getUnits());
+                DataFileParser chunkParser = new DataFileParser(range);
+                chunkParser.setArea(area);
+                chunkParser.readData(chunk);
+                return chunk;
+            }));
+        }
+        
+        try {
+            for (ForkJoinTask<DataSet> task : tasks) {
+                int from = dataSet.size();
+                dataSet.addAll(task.get());
+                if (listener != null && dataSet.size() > from) {
+                    listener.rowsLoaded(dataSet, from, dataSet.size());
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while parsing");
+        }
+        catch(ExecutionException e) {
+            throw new IOException("Could not parse data", e.getCause());
+        }
+        return dataSet;
+    }
+    
+    /**
+     * Return the fork-join pool used for parallel parsing, creating it if needed.
+     */
+    private synchronized ForkJoinPool getPool()
+    {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+    
+    /**
+     * Read the header and all data lines with the given parser.
+     */
+    private DataSet readDataFile(DataFileParser parser, DataLoadListener listener)
+        throws IOException
+    {
+        DataSet dataSet = parser.readHeader();
+        readData(parser, dataSet, listener);
+        return dataSet;
+    }
+    
+    /**
+     * Read all remaining data lines with the given parser. If there is a listener,
+     * the lines are read in batches, and the listener is told about each one.
+     */
+    private void readData(DataFileParser parser, DataSet dataSet, DataLoadListener listener)
+        throws IOException
+    {
+        if (listener == null) {
+            parser.readData(dataSet);
+            return;
+        }
+        boolean finished = false;
+        while (!finished) {
+            int from = dataSet.size();
+            finished = parser.readData(dataSet, BATCH_ROWS);
+            if (dataSet.size() > from) {
+                listener.rowsLoaded(dataSet, from, dataSet.size());
+            }
+        }
+    }
+    
+    /** 
+     * Read a data file line by line as text, splitting each line into Strings.
+     * This was the original way of loading files; it is kept so that
+     * DataLoaderBenchmark can compare it with loadDataFile.
+     * 
+     * @return A DataSet object holding the complete dataset
+     */
+    public DataSet loadDataFileLineByLine(Path path) 
+    {
+        try (BufferedReader br = Files.newBufferedReader(path)) {
             // the first four lines of the file hold special information; read them in:
             String pollutant = readDataHeader(br);
             String year = readDataHeader(br);
@@ -46,11 +498,10 @@ public class DataLoader
                 String[] values = line.split(COMMA_DELIMITER);
                 dataSet.addData(values);
             }
-            System.out.println("Loading file... done.");
             return dataSet;
         }        
-        catch(IOException | URISyntaxException e) {
-            System.out.println("Could not read file " + fileName);
+        catch(IOException e) {
+            System.out.println("Could not read file " + path);
             e.printStackTrace();
             return null;
         }
@@ -0,0 +1,128 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures how fast DataLoader reads DEFRA data files, in rows per second, and compares
+ * the byte level parser (streamed, memory mapped and parallel) and the binary file
+ * with the original line by line String parsing.
+ *
+ * Run main with the paths of one or more csv files. Without arguments, a synthetic file
+ * the size of a national grid is generated and used.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class DataLoaderBenchmark
+{
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int SYNTHETIC_ROWS = 400_000;
+
+    private DataLoader dataLoader;
+
+    /**
+     * Constructor for objects of class DataLoaderBenchmark
+     */
+    public DataLoaderBenchmark()
+    {
+        dataLoader = new DataLoader();
+    }
+
+    public static void main(String[] args)
+        throws IOException
+    {
+        List<Path> files = new ArrayList<>();
+        for (String arg : args) {
+            files.add(Path.of(arg));
+        }
+        if (files.isEmpty()) {
+            Path synthetic = writeSyntheticFile(SYNTHETIC_ROWS);
+            synthetic.toFile().deleteOnExit();
+            files.add(synthetic);
+        }
+
+        DataLoaderBenchmark benchmark = new DataLoaderBenchmark();
+        for (Path file : files) {
+            benchmark.run(file);
+        }
+    }
+
+    /**
+     * Load the file repeatedly with both parsers and print the rows per second.
+     */
+    public void run(Path file)
+    {
+        System.out.println("Benchmarking " + file);
+        int processors = Runtime.getRuntime().availableProcessors();
+        double lineByLine = measure(file, false, false, 1);
+        double streamed = measure(file, true, false, 1);
+        double mapped = measure(file, true, true, 1);
+        double parallel = measure(file, true, true, processors);
+        dataLoader.setBinaryCache(true);
+        double binary = measure(file, true, true, 1);
+        dataLoader.setBinaryCache(false);
+        BinaryDataFile.sidecarFor(file).toFile().deleteOnExit();
+        System.out.printf("  line by line: %,12.0f rows/s%n", lineByLine);
+        System.out.printf("  streamed:     %,12.0f rows/s  (%.1fx)%n", streamed, streamed / lineByLine);
+        System.out.printf("  mapped:       %,12.0f rows/s  (%.1fx)%n", mapped, mapped / lineByLine);
+        System.out.printf("  parallel x%-3d %,12.0f rows/s  (%.1fx)%n", processors, parallel, parallel / lineByLine);
+        System.out.printf("  binary file:  %,12.0f rows/s  (%.1fx)%n", binary, binary / lineByLine);
+    }
+
+    /**
+     * Return the average rows per second over the measured rounds.
+     */
+    private double measure(Path file, boolean byteLevel, boolean memoryMapped, int parallelism)
+    {
+        dataLoader.setMemoryMapped(memoryMapped);
+        dataLoader.setParallelism(parallelism);
+        long rows = 0;
+        long nanos = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            DataSet dataSet = byteLevel ? dataLoader.loadDataFile(file)
+                                        : dataLoader.loadDataFileLineByLine(file);
+            long time = System.nanoTime() - start;
+            if (round >= WARMUP_ROUNDS) {
+                rows += dataSet.size();
+                nanos += time;
+            }
+        }
+        return rows / (nanos / 1e9);
+    }
+
+    /**
+     * Write a temporary file in the DEFRA format with the given number of rows.
+     * About one in twenty values is "MISSING", as in the real national grids.
+     */
+    public static Path writeSyntheticFile(int rows)
+        throws IOException
+    {
+        Path file = Files.createTempFile("defra-benchmark", ".csv");
+        Random random = new Random(42);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("no2,,,");
+            out.println("2023,,,");
+            out.println("annual mean,,,");
+            out.println("ug m-3,,,");
+            out.println(",,,");
+            out.println("gridcode,x,y,no22023");
+            for (int i = 0; i < rows; i++) {
+                int x = 500 + (i % 700) * 1000;
+                int y = 500 + (i / 700) * 1000;
+                if (random.nextInt(20) == 0) {
+                    out.println((i + 1) + "," + x + "," + y + ",MISSING");
+                }
+                else {
+                    out.printf(Locale.ROOT, "%d,%d,%d,%.5f%n", i + 1, x, y, random.nextDouble() * 60);
+                }
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,213 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+public class DataLoaderTest {
+
+    private static final String HEADER =
+        "no2,,,\r\n2019,,,\r\nannual mean,,,\r\nug m-3,,,\r\n,,,\r\ngridcode,x,y,no22019\r\n";
+
+    private Path writeFile(String contents) throws IOException {
+        Path file = Files.createTempFile("dataloader-test", ".csv");
+        file.toFile().deleteOnExit();
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testHeaderIsReadLikeReadDataHeader() throws IOException {
+        DataSet ds = new DataLoader().loadDataFile(writeFile(HEADER + "1,510500,170500,12.25\r\n"));
+
+        assertEquals("no2", ds.getPollutant());
+        assertEquals("2019", ds.getYear());
+        assertEquals("annual mean", ds.getMetric());
+        assertEquals("ug m-3", ds.getUnits());
+        assertEquals(1, ds.size());
+    }
+
+    @Test
+    public void testMissingValuesAreStoredAsMinusOne() throws IOException {
+        DataSet ds = new DataLoader().loadDataFile(writeFile(HEADER
+            + "1,510500,170500,MISSING\n"
+            + "2,511500,x,7.5\n"
+            + "\n"
+            + "3,512500,170500\n"));
+
+        assertEquals(3, ds.size());
+        assertEquals(-1.0, ds.getValue(0), 0.0);
+        assertEquals(-1, ds.getY(1));
+        assertEquals(7.5, ds.getValue(1), 0.0);
+        assertEquals(512500, ds.getX(2));
+        assertEquals(-1.0, ds.getValue(2), 0.0);
+    }
+
+    @Test
+    public void testByteParserMatchesLineByLineParser() throws IOException {
+        Path file = DataLoaderBenchmark.writeSyntheticFile(5000);
+        file.toFile().deleteOnExit();
+        DataLoader loader = new DataLoader();
+
+        DataSet expected = loader.loadDataFileLineByLine(file);
+        DataSet actual = loader.loadDataFile(file);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getDataPoint(i), actual.getDataPoint(i));
+        }
+    }
+
+    @Test
+    public void testParseDoubleAgreesWithDoubleParseDouble() {
+        String[] inputs = {"0", "42", "-3.5", "12.345678", "0.000123", "1e3", "2.5E-2",
+                           "+7.25", "123456789.123456789", "0.1", "59.99999"};
+        for (String input : inputs) {
+            byte[] bytes = input.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(Double.parseDouble(input), DataFileParser.parseDouble(bytes, bytes.length), 0.0);
+        }
+        byte[] missing = "MISSING".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(-1.0, DataFileParser.parseDouble(missing, missing.length), 0.0);
+    }
+
+    @Test
+    public void testMappedAndStreamedLoadsAgree() throws IOException {
+        Path file = DataLoaderBenchmark.writeSyntheticFile(3000);
+        file.toFile().deleteOnExit();
+        DataLoader loader = new DataLoader();
+
+        loader.setMemoryMapped(true);
+        DataSet mapped = loader.loadDataFile(file);
+        loader.setMemoryMapped(false);
+        DataSet streamed = loader.loadDataFile(file);
+
+        assertEquals(streamed.size(), mapped.size());
+        for (int i = 0; i < streamed.size(); i++) {
+            assertEquals(streamed.getDataPoint(i), mapped.getDataPoint(i));
+        }
+    }
+
+    @Test
+    public void testParallelLoadMatchesSequentialLoad() throws IOException {
+        Path file = DataLoaderBenchmark.writeSyntheticFile(150000);
+        file.toFile().deleteOnExit();
+        DataLoader loader = new DataLoader();
+
+        DataSet sequential = loader.loadDataFile(file);
+        loader.setParallelism(4);
+        DataSet parallel = loader.loadDataFile(file);
+
+        assertEquals(sequential.toString(), parallel.toString());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.getDataPoint(i), parallel.getDataPoint(i));
+        }
+    }
+
+    @Test
+    public void testListenerIsToldAboutEveryRowInOrder() throws IOException {
+        Path file = DataLoaderBenchmark.writeSyntheticFile(150000);
+        file.toFile().deleteOnExit();
+        DataLoader loader = new DataLoader();
+        DataSet complete = loader.loadDataFile(file);
+
+        for (int parallelism : new int[] {1, 4}) {
+            loader.setParallelism(parallelism);
+            int[] next = {0};
+            int[] batches = {0};
+            double[] sum = {0};
+            DataSet streamed = loader.loadDataFile(file, (dataSet, from, to) -> {
+                assertEquals(next[0], from);
+                for (int i = from; i < to; i++) {
+                    sum[0] += dataSet.getValue(i);
+                }
+                next[0] = to;
+                batches[0]++;
+            });
+
+            assertEquals(complete.size(), next[0]);
+            assertTrue(batches[0] > 1);
+            double expected = 0;
+            for (int i = 0; i < complete.size(); i++) {
+                expected += complete.getValue(i);
+                assertEquals(complete.getDataPoint(i), streamed.getDataPoint(i));
+            }
+            assertEquals(expected, sum[0], 0.0);
+        }
+    }
+
+    @Test
+    public void testAreaKeepsOnlyTheRowsInside() throws IOException {
+        Path file = DataLoaderBenchmark.writeSyntheticFile(150000);
+        file.toFile().deleteOnExit();
+        BoundingBox area = new BoundingBox(100000, 50000, 160000, 90000);
+        Path binary = BinaryDataFile.sidecarFor(file, area);
+        binary.toFile().deleteOnExit();
+        DataLoader loader = new DataLoader();
+        DataSet complete = loader.loadDataFile(file);
+
+        loader.setBinaryCache(true);
+        for (int parallelism : new int[] {1, 4, 4}) {
+            loader.setParallelism(parallelism);
+            DataSet inside = loader.loadDataFile(file, area, null);
+
+            int row = 0;
+            for (int i = 0; i < complete.size(); i++) {
+                if (area.contains(complete.getX(i), complete.getY(i))) {
+                    assertEquals(complete.getDataPoint(i), inside.getDataPoint(row++));
+                }
+            }
+            assertEquals(row, inside.size());
+            assertTrue(row > 0 && row < complete.size() / 10);
+        }
+        // the second parallel load read the binary file of the area
+        assertTrue(Files.exists(binary));
+        assertFalse(Files.exists(BinaryDataFile.sidecarFor(file)));
+    }
+
+    @Test
+    public void testScanGivesTheSameRowsAsLoad() throws IOException {
+        Path file = DataLoaderBenchmark.writeSyntheticFile(20000);
+        file.toFile().deleteOnExit();
+        BoundingBox area = new BoundingBox(100000, 5000, 400000, 20000);
+        DataLoader loader = new DataLoader();
+        DataSet loaded = loader.loadDataFile(file, area, null);
+
+        for (boolean mapped : new boolean[] {true, false}) {
+            loader.setMemoryMapped(mapped);
+            DataSet scanned = new DataSet("", "", "", "");
+            DataSet header = loader.scanDataFile(file, area, scanned::addData);
+
+            assertEquals(loaded.getPollutant(), header.getPollutant());
+            assertEquals(loaded.getUnits(), header.getUnits());
+            assertEquals(0, header.size());
+            assertEquals(loaded.size(), scanned.size());
+            for (int i = 0; i < loaded.size(); i++) {
+                assertEquals(loaded.getDataPoint(i), scanned.getDataPoint(i));
+            }
+        }
+    }
+
+    @Test
+    public void testBinaryFileIsWrittenAndRebuiltWhenCsvChanges() throws IOException {
+        Path file = writeFile(HEADER + "1,510500,170500,12.25\n2,511500,170500,MISSING\n");
+        Path binary = BinaryDataFile.sidecarFor(file);
+        binary.toFile().deleteOnExit();
+        DataLoader loader = new DataLoader();
+        loader.setBinaryCache(true);
+
+        DataSet parsed = loader.loadDataFile(file);
+        assertTrue(Files.exists(binary));
+        DataSet cached = loader.loadDataFile(file);
+        assertEquals(parsed.toString(), cached.toString());
+        assertEquals(parsed.getDataPoint(0), cached.getDataPoint(0));
+        assertEquals(parsed.getDataPoint(1), cached.getDataPoint(1));
+
+        Files.write(file, (HEADER + "1,510500,170500,30.5\n").getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        DataSet rebuilt = loader.loadDataFile(file);
+        assertEquals(1, rebuilt.size());
+        assertEquals(30.5, rebuilt.getValue(0), 0.0);
+    }
+}
@@ -0,0 +1,156 @@
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyDoubleProperty;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleStringProperty;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The DataPrefetcher loads every pollutant and year into the FileLoader's cache in the
+ * background, so that the map and the statistics views find their data in memory.
+ *
+ * The files are loaded on a small, fixed number of daemon threads. The current
+ * selection is loaded first, then the other years of the same pollutant, then
+ * everything else. Progress is published through JavaFX properties that are only
+ * updated on the JavaFX application thread, so they can be bound to controls.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class DataPrefetcher
+{
+    // number of files loaded at the same time
+    private static final int THREADS = 3;
+
+    private FileLoader fileLoader;
+    private BoundingBox area;
+    private ExecutorService executor;
+    private AtomicInteger finished;
+    private int total;
+    private SimpleDoubleProperty progress;
+    private SimpleStringProperty message;
+
+    /**
+     * Create a prefetcher that fills the cache of the given FileLoader with the data
+     * inside an area.
+     *
+     * @param area The area the views load, or null for whole files
+     */
+    public DataPrefetcher(FileLoader fileLoader, BoundingBox area)
+    {
+        this.fileLoader = fileLoader;
+        this.area = area;
+        this.finished = new AtomicInteger();
+        this.progress = new SimpleDoubleProperty(0);
+        this.message = new SimpleStringProperty("");
+    }
+
+    /**
+     * Start loading all pollutants and years, beginning with the given selection.
+     * Calling this again while a prefetch is running has no effect.
+     */
+    public synchronized void start(String pollutant, String year)
+    {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newFixedThreadPool(THREADS, new PrefetchThreadFactory());
+
+        List<String[]> order = new ArrayList<>();
+        order.add(new String[] {pollutant, year});
+        for (String otherYear : FileLoader.YEARS) {
+            if (!otherYear.equals(year)) {
+                order.add(new String[] {pollutant, otherYear});
+            }
+        }
+        for (String otherPollutant : FileLoader.POLLUTANTS) {
+            if (!otherPollutant.equalsIgnoreCase(pollutant)) {
+                for (String otherYear : FileLoader.YEARS) {
+                    order.add(new String[] {otherPollutant, otherYear});
+                }
+            }
+        }
+
+        total = order.size();
+        publishProgress(0);
+        for (String[] selection : order) {
+            executor.execute(() -> load(selection[0], selection[1]));
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Stop loading files that have not been started yet.
+     */
+    public synchronized void stop()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Return the fraction of files loaded so far, from 0 to 1.
+     */
+    public ReadOnlyDoubleProperty progressProperty()
+    {
+        return progress;
+    }
+
+    /**
+     * Return a short description of the progress, such as "Loaded 5 of 18 data files".
+     */
+    public ReadOnlyStringProperty messageProperty()
+    {
+        return message;
+    }
+
+    /**
+     * Load one file into the cache and report the progress.
+     */
+    private void load(String pollutant, String year)
+    {
+        try {
+            fileLoader.loadPollutionData(pollutant, year, area);
+        }
+        catch(RuntimeException e) {
+            System.out.println("Could not prefetch " + pollutant + " " + year + ": " + e);
+        }
+        publishProgress(finished.incrementAndGet());
+    }
+
+    /**
+     * Update the progress properties on the JavaFX application thread.
+     */
+    private void publishProgress(int count)
+    {
+        Platform.runLater(() -> {
+            progress.set((double) count / total);
+            message.set(count == total ? "All " + total + " data files loaded"
+                                       : "Loaded " + count + " of " + total + " data files");
+        });
+    }
+
+    /**
+     * Creates the daemon threads of the prefetcher, so they do not keep the
+     * application alive.
+     */
+    private static class PrefetchThreadFactory implements ThreadFactory
+    {
+        private AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task)
+        {
+            Thread thread = new Thread(task, "prefetch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
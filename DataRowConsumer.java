@@ -0,0 +1,15 @@
+/**
+ * A DataRowConsumer is given the rows of a data file one by one while the file is
+ * read, so that something can be computed from them without keeping them in a
+ * DataSet.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public interface DataRowConsumer
+{
+    /**
+     * Called for each row, in file order. Missing values are -1.
+     */
+    void accept(int gridCode, int x, int y, double value);
+}
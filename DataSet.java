@@ -9,6 +9,18 @@ import java.util.*;
  * The data consists of a few bits of information about the nature of the data, and a list
  * of data points.
  * 
+ * The data points are stored column by column in primitive arrays (grid code, x, y and
+ * value), rather than as one DataPoint object per row. The national grids hold hundreds
+ * of thousands of rows, so this saves an object per row and lets the statistics loops
+ * scan plain arrays. Rows can be read by index (getX, getValue, ...), or as DataPoint
+ * objects through the list view returned by getData.
+ * 
+ * Statistics of the valid values (see RunningStatistics) are updated as each row is
+ * added, for all rows and for any areas that have been asked for, so the average and
+ * highest point are available without scanning the rows again. The distribution of
+ * the values of all rows is only worked out when the statistics are first asked for,
+ * so that loading a file does not pay for it.
+ * 
  * @author Michael Kölling
  * @version 1.0
  */
@@ -19,7 +31,21 @@ public class DataSet
     private String metric;
     private String units;
     
-    private List<DataPoint> data;
+    // the columns grow by at least this many rows at a time
+    private static final int CHUNK_SIZE = 4096;
+    
+    private int[] gridCodes;
+    private int[] xs;
+    private int[] ys;
+    private double[] values;
+    private int size;
+    
+    private List<DataPoint> dataView;
+    
+    // statistics of all rows, and of the rows inside each tracked area
+    private RunningStatistics statistics;
+    private BoundingBox[] areas;
+    private RunningStatistics[] areaStatistics;
 
     /**
      * Constructor for objects of class DataSet
@@ -31,7 +57,48 @@ public class DataSet
         this.metric = metric;
         this.units = units;
         
-        data = new ArrayList<DataPoint>();
+        gridCodes = new int[CHUNK_SIZE];
+        xs = new int[CHUNK_SIZE];
+        ys = new int[CHUNK_SIZE];
+        values = new double[CHUNK_SIZE];
+        size = 0;
+        
+        dataView = new DataPointView();
+        statistics = new RunningStatistics(false);
+        areas = new BoundingBox[0];
+        areaStatistics = new RunningStatistics[0];
+    }
+    
+    /**
+     * Constructor for a DataSet whose data points are already held in columns, for
+     * example when it is read back from a binary file. The arrays are used as they are,
+     * not copied, and must all have the same length.
+     */
+    public DataSet(String pollutant, String year, String metric, String units,
+                   int[] gridCodes, int[] xs, int[] ys, double[] values)
+    {
+        if (xs.length != gridCodes.length || ys.length != gridCodes.length 
+                || values.length != gridCodes.length) {
+            throw new IllegalArgumentException("columns must have the same length");
+        }
+        this.pollutant = pollutant;
+        this.year = year;
+        this.metric = metric;
+        this.units = units;
+        
+        this.gridCodes = gridCodes;
+        this.xs = xs;
+        this.ys = ys;
+        this.values = values;
+        size = values.length;
+        
+        dataView = new DataPointView();
+        statistics = new RunningStatistics(false);
+        for (int i = 0; i < size; i++) {
+            statistics.add(i, values[i]);
+        }
+        areas = new BoundingBox[0];
+        areaStatistics = new RunningStatistics[0];
     }
 
     /**
@@ -68,10 +135,75 @@ public class DataSet
     
     /**
      * Return the data points of this dataset.
+     * 
+     * The list is a read-only view onto the columns; each DataPoint is created when it
+     * is requested. Code that scans many rows should prefer the index based accessors.
      */
     public List<DataPoint> getData()
     {
-        return data;
+        return dataView;
+    }
+    
+    /**
+     * Return the number of data points in this dataset.
+     */
+    public int size()
+    {
+        return size;
+    }
+    
+    /**
+     * Return an estimate of the memory used by this dataset, in bytes. It counts the
+     * allocated columns plus a fixed allowance for the object and header Strings.
+     */
+    public long estimateMemoryBytes()
+    {
+        return 256L + (long) values.length * (3 * Integer.BYTES + Double.BYTES);
+    }
+    
+    /**
+     * Return the grid code of the data point at the given row.
+     */
+    public int getGridCode(int row)
+    {
+        Objects.checkIndex(row, size);
+        return gridCodes[row];
+    }
+    
+    /**
+     * Return the x coordinate (easting) of the data point at the given row.
+     */
+    public int getX(int row)
+    {
+        Objects.checkIndex(row, size);
+        return xs[row];
+    }
+    
+    /**
+     * Return the y coordinate (northing) of the data point at the given row.
+     */
+    public int getY(int row)
+    {
+        Objects.checkIndex(row, size);
+        return ys[row];
+    }
+    
+    /**
+     * Return the value of the data point at the given row. Missing values are -1.
+     */
+    public double getValue(int row)
+    {
+        Objects.checkIndex(row, size);
+        return values[row];
+    }
+    
+    /**
+     * Return the data point at the given row as a DataPoint object.
+     */
+    public DataPoint getDataPoint(int row)
+    {
+        Objects.checkIndex(row, size);
+        return new DataPoint(gridCodes[row], xs[row], ys[row], values[row]);
     }
     
     /**
@@ -88,10 +220,147 @@ public class DataSet
      */
     public void addData(String[] values)
     {
-        data.add(new DataPoint(toInt(values[0]), 
-                               toInt(values[1]), 
-                               toInt(values[2]), 
-                               toDouble(values[3]))); 
+        addData(toInt(values[0]), 
+                toInt(values[1]), 
+                toInt(values[2]), 
+                toDouble(values[3])); 
+    }
+    
+    /**
+     * Add a data point to this dataset, given as already converted values.
+     * Missing values should be passed as -1.
+     */
+    public void addData(int gridCode, int x, int y, double value)
+    {
+        if (size == values.length) {
+            grow();
+        }
+        gridCodes[size] = gridCode;
+        xs[size] = x;
+        ys[size] = y;
+        values[size] = value;
+        statistics.add(size, value);
+        for (int a = 0; a < areas.length; a++) {
+            if (areas[a].contains(x, y)) {
+                areaStatistics[a].add(size, value);
+            }
+        }
+        size++;
+    }
+    
+    /**
+     * Add all data points of another dataset to the end of this one, in their order.
+     * The header information of the other dataset is ignored.
+     */
+    public void addAll(DataSet other)
+    {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.gridCodes, 0, gridCodes, size, other.size);
+        System.arraycopy(other.xs, 0, xs, size, other.size);
+        System.arraycopy(other.ys, 0, ys, size, other.size);
+        System.arraycopy(other.values, 0, values, size, other.size);
+        statistics.merge(other.statistics, size);
+        for (int a = 0; a < areas.length; a++) {
+            addRows(areaStatistics[a], areas[a], size, size + other.size);
+        }
+        size += other.size;
+    }
+    
+    /**
+     * Return a new grid of 1 km cells of the rows, for looking up the value at a
+     * position. The grid is not kept by this dataset: it holds the rows there are
+     * now, and its memory belongs to the caller.
+     */
+    public RasterGrid toRaster()
+    {
+        return new RasterGrid(this);
+    }
+    
+    /**
+     * Return the statistics of the valid values of all rows. They are kept up to date
+     * as rows are added, so this does not look at the rows, except to work out the
+     * distribution of the values the first time it is called (and again after
+     * datasets without it have been added with addAll).
+     */
+    public synchronized RunningStatistics getStatistics()
+    {
+        if (!statistics.hasDistribution()) {
+            statistics.addDistribution(values, 0, size);
+        }
+        return statistics;
+    }
+    
+    /**
+     * Return the statistics of the valid values of the rows inside an area. The first
+     * time an area is asked for, its statistics are worked out from the rows so far;
+     * after that they are kept up to date as rows are added, like those of all rows.
+     * Every tracked area is checked for each added row, so only a few areas should be
+     * tracked.
+     */
+    public synchronized RunningStatistics getStatistics(BoundingBox area)
+    {
+        for (int a = 0; a < areas.length; a++) {
+            if (areas[a].equals(area)) {
+                return areaStatistics[a];
+            }
+        }
+        RunningStatistics areaStats = new RunningStatistics();
+        addRows(areaStats, area, 0, size);
+        areas = Arrays.copyOf(areas, areas.length + 1);
+        areaStatistics = Arrays.copyOf(areaStatistics, areaStatistics.length + 1);
+        areas[areas.length - 1] = area;
+        areaStatistics[areaStatistics.length - 1] = areaStats;
+        return areaStats;
+    }
+    
+    /**
+     * Add the rows from one row up to (not including) another to the statistics of
+     * an area, if they are inside it.
+     */
+    private void addRows(RunningStatistics areaStats, BoundingBox area, int from, int to)
+    {
+        for (int i = from; i < to; i++) {
+            if (area.contains(xs[i], ys[i])) {
+                areaStats.add(i, values[i]);
+            }
+        }
+    }
+    
+    /**
+     * Make sure the columns can hold at least the given number of rows without growing.
+     */
+    public void ensureCapacity(int capacity)
+    {
+        if (capacity > values.length) {
+            resize(capacity);
+        }
+    }
+    
+    /**
+     * Shrink the columns to the number of rows, releasing the unused capacity.
+     */
+    public void trimToSize()
+    {
+        if (size < values.length) {
+            resize(size);
+        }
+    }
+    
+    /**
+     * Make room for more rows. The columns grow by at least one chunk, and by half
+     * their current length once they are large, so that appending stays cheap.
+     */
+    private void grow()
+    {
+        resize(values.length + Math.max(CHUNK_SIZE, values.length >> 1));
+    }
+    
+    private void resize(int newCapacity)
+    {
+        gridCodes = Arrays.copyOf(gridCodes, newCapacity);
+        xs = Arrays.copyOf(xs, newCapacity);
+        ys = Arrays.copyOf(ys, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
     }
     
     /**
@@ -124,34 +393,23 @@ public class DataSet
         }
     }
     
+    /**
+     * Return the average of the valid values, or -1 if there are none.
+     */
     public double CalculateValidAverage() {
-        double sum = 0;
-        int count = 0;
-    
-        for (DataPoint dp : data) {
-            if (dp.value() >= 0) {
-                sum += dp.value();
-                count++;
-            }
-        }
-    
-        if (count == 0) {
+        if (statistics.getCount() == 0) {
             return -1;
         }
-    
-        return sum / count;
+        return statistics.getMean();
     }
     
+    /**
+     * Return the data point with the highest valid value, or null if there is none.
+     * If several have the highest value, the first is returned.
+     */
     public DataPoint getHighestDataPoint() {
-        DataPoint highest = null;
-        for (DataPoint dp : data) {
-            if (dp.value() >= 0) { 
-                if (highest == null || dp.value() > highest.value()) {
-                    highest = dp;
-                }
-            }
-        }
-        return highest;
+        int highest = statistics.getMaxRow();
+        return highest == -1 ? null : getDataPoint(highest);
     }
 
 
@@ -162,7 +420,24 @@ public class DataSet
     public String toString()
     {
         return String.format("Dataset: Pollutant: %s, Year: %s, Metric: %s, Units: %s (%d data points)",
-                             pollutant, year, metric, units, data.size());
+                             pollutant, year, metric, units, size);
     }
     
+    /**
+     * A read-only list of DataPoints backed by the columns of this dataset.
+     */
+    private class DataPointView extends AbstractList<DataPoint> implements RandomAccess
+    {
+        @Override
+        public DataPoint get(int index)
+        {
+            return getDataPoint(index);
+        }
+        
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    }
 }
@@ -45,4 +45,147 @@ public class DataSetTest {
         assertEquals(45.0, highest.value(), 0.001);
         assertEquals(202, highest.gridCode());
     }
+
+    @Test
+    public void testIndexAccessorsMatchDataPoints() {
+        DataSet ds = new DataSet("NO2", "2023", "Metric", "ug/m3");
+
+        ds.addData(new String[]{"301", "520000", "180000", "12.5"});
+        ds.addData(302, 520001, 180001, 13.5);
+        ds.addData(new String[]{"303", "520002", "180002", "MISSING"});
+
+        assertEquals(3, ds.size());
+        assertEquals(302, ds.getGridCode(1));
+        assertEquals(520001, ds.getX(1));
+        assertEquals(180001, ds.getY(1));
+        assertEquals(13.5, ds.getValue(1), 0.001);
+        assertEquals(-1.0, ds.getValue(2), 0.001);
+        assertEquals(new DataPoint(301, 520000, 180000, 12.5), ds.getData().get(0));
+    }
+
+    @Test
+    public void testColumnsGrowPastInitialChunk() {
+        DataSet ds = new DataSet("PM10", "2020", "Metric", "ug/m3");
+
+        for (int i = 0; i < 10000; i++) {
+            ds.addData(i, 500000 + i, 150000 + i, i * 0.5);
+        }
+
+        assertEquals(10000, ds.size());
+        assertEquals(10000, ds.getData().size());
+        assertEquals(9999, ds.getGridCode(9999));
+        assertEquals(4999.5, ds.getValue(9999), 0.001);
+        assertEquals(9999, ds.getHighestDataPoint().gridCode());
+    }
+
+    @Test
+    public void testStatisticsMatchTheValidValues() {
+        DataSet ds = new DataSet("NO2", "2023", "Metric", "ug/m3");
+        double[] valid = {12.0, 30.5, 7.25, 30.5, 18.0};
+        for (int i = 0; i < valid.length; i++) {
+            ds.addData(i, 520000 + i * 1000, 180000, valid[i]);
+            ds.addData(100 + i, 520000 + i * 1000, 181000, -1);
+        }
+
+        double mean = (12.0 + 30.5 + 7.25 + 30.5 + 18.0) / 5;
+        double squares = 0;
+        for (double value : valid) {
+            squares += (value - mean) * (value - mean);
+        }
+        RunningStatistics statistics = ds.getStatistics();
+        assertEquals(5, statistics.getCount());
+        assertEquals(mean, statistics.getMean(), 1e-9);
+        assertEquals(squares / 5, statistics.getVariance(), 1e-9);
+        assertEquals(7.25, statistics.getMin());
+        assertEquals(30.5, statistics.getMax());
+        // the first of the two highest values
+        assertEquals(2, statistics.getMaxRow());
+    }
+
+    @Test
+    public void testAreaStatisticsFollowAddedRows() {
+        DataSet ds = new DataSet("NO2", "2023", "Metric", "ug/m3");
+        BoundingBox area = new BoundingBox(0, 0, 1000, 1000);
+        ds.addData(1, 500, 500, 10);
+        ds.addData(2, 5000, 500, 50);
+
+        assertEquals(1, ds.getStatistics(area).getCount());
+        ds.addData(3, 1000, 1000, 20);
+        DataSet more = new DataSet("NO2", "2023", "Metric", "ug/m3");
+        more.addData(4, 0, 0, 30);
+        more.addData(5, 2000, 0, 40);
+        ds.addAll(more);
+
+        RunningStatistics inside = ds.getStatistics(area);
+        assertEquals(3, inside.getCount());
+        assertEquals(20.0, inside.getMean(), 1e-9);
+        assertEquals(3, inside.getMaxRow());
+        assertEquals(5, ds.getStatistics().getCount());
+        assertEquals(1, ds.getStatistics().getMaxRow());
+    }
+
+    @Test
+    public void testMergedStatisticsMatchAddingEveryRow() {
+        DataSet all = new DataSet("PM10", "2020", "Metric", "ug/m3");
+        DataSet first = new DataSet("PM10", "2020", "Metric", "ug/m3");
+        DataSet second = new DataSet("PM10", "2020", "Metric", "ug/m3");
+        for (int i = 0; i < 1000; i++) {
+            double value = i % 17 == 0 ? -1 : (i * 37 % 101) * 0.5;
+            all.addData(i, i, 0, value);
+            (i < 400 ? first : second).addData(i, i, 0, value);
+        }
+        first.addAll(second);
+
+        RunningStatistics expected = all.getStatistics();
+        RunningStatistics merged = first.getStatistics();
+        assertEquals(expected.getCount(), merged.getCount());
+        assertEquals(expected.getMean(), merged.getMean(), 1e-9);
+        assertEquals(expected.getVariance(), merged.getVariance(), 1e-9);
+        assertEquals(expected.getMaxRow(), merged.getMaxRow());
+        assertEquals(expected.getMin(), merged.getMin());
+    }
+
+    @Test
+    public void testDistributionIsWorkedOutWhenAskedFor() {
+        DataSet ds = new DataSet("PM10", "2020", "Metric", "ug/m3");
+        RunningStatistics expected = new RunningStatistics();
+        for (int i = 0; i < 1000; i++) {
+            double value = i % 17 == 0 ? -1 : (i * 37 % 101) * 0.5;
+            ds.addData(i, i, 0, value);
+            expected.add(i, value);
+        }
+
+        RunningStatistics statistics = ds.getStatistics();
+        assertTrue(statistics.hasDistribution());
+        assertEquals(expected.getPercentile(50), statistics.getPercentile(50));
+        assertEquals(expected.getHistogram().countAtLeast(25), statistics.getHistogram().countAtLeast(25));
+
+        // once it has been asked for, the distribution follows added rows
+        ds.addData(1000, 0, 0, 200);
+        expected.add(1000, 200);
+        assertEquals(expected.getHistogram().countAtLeast(100), ds.getStatistics().getHistogram().countAtLeast(100));
+
+        DataSet more = new DataSet("PM10", "2020", "Metric", "ug/m3");
+        more.addData(1001, 0, 0, 300);
+        expected.add(1001, 300);
+        ds.addAll(more);
+        assertEquals(expected.getPercentile(99.9), ds.getStatistics().getPercentile(99.9));
+        assertEquals(2, ds.getStatistics().getHistogram().countAtLeast(150));
+    }
+
+    @Test
+    public void testStatisticsWithoutDistributionDropItWhenMerged() {
+        RunningStatistics kept = new RunningStatistics();
+        kept.add(0, 10);
+        RunningStatistics notKept = new RunningStatistics(false);
+        notKept.add(0, 20);
+
+        assertFalse(notKept.hasDistribution());
+        assertThrows(IllegalStateException.class, () -> notKept.getPercentile(50));
+        kept.merge(notKept, 1);
+        assertFalse(kept.hasDistribution());
+        assertEquals(2, kept.getCount());
+        kept.addDistribution(new double[] {10, 20}, 0, 2);
+        assertEquals(2, kept.getHistogram().getCount());
+    }
 }
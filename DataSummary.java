@@ -0,0 +1,108 @@
+/**
+ * A DataSummary holds what the statistics view needs to know about one data file,
+ * without its rows: the header information, the area it covers, the statistics of the
+ * valid values in that area and the point with the highest value.
+ *
+ * Summaries are made from a loaded dataset, or while a file is scanned, and can be
+ * stored next to the data file (see SummaryFile).
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class DataSummary
+{
+    private String pollutant;
+    private String year;
+    private String metric;
+    private String units;
+    private BoundingBox area;
+    private RunningStatistics statistics;
+    private DataPoint highest;
+
+    /**
+     * Create a summary.
+     *
+     * @param header  A dataset that holds the header information of the file
+     * @param area  The area summarised, or null for the whole file
+     * @param statistics  The statistics of the valid values in the area
+     * @param highest  The point with the highest valid value, or null if there is none
+     */
+    public DataSummary(DataSet header, BoundingBox area, RunningStatistics statistics, DataPoint highest)
+    {
+        this(header.getPollutant(), header.getYear(), header.getMetric(), header.getUnits(),
+             area, statistics, highest);
+    }
+
+    /**
+     * Create a summary from its parts.
+     */
+    public DataSummary(String pollutant, String year, String metric, String units,
+                       BoundingBox area, RunningStatistics statistics, DataPoint highest)
+    {
+        this.pollutant = pollutant;
+        this.year = year;
+        this.metric = metric;
+        this.units = units;
+        this.area = area;
+        this.statistics = statistics;
+        this.highest = highest;
+    }
+
+    /**
+     * Create the summary of the rows of a dataset inside an area, from its running
+     * statistics.
+     *
+     * @param area  The area to summarise, or null for all rows
+     */
+    public static DataSummary of(DataSet dataSet, BoundingBox area)
+    {
+        RunningStatistics statistics = area == null ? dataSet.getStatistics() : dataSet.getStatistics(area);
+        int row = statistics.getMaxRow();
+        return new DataSummary(dataSet, area, statistics, row == -1 ? null : dataSet.getDataPoint(row));
+    }
+
+    public String getPollutant()
+    {
+        return pollutant;
+    }
+
+    public String getYear()
+    {
+        return year;
+    }
+
+    public String getMetric()
+    {
+        return metric;
+    }
+
+    public String getUnits()
+    {
+        return units;
+    }
+
+    /**
+     * Return the area summarised, or null for the whole file.
+     */
+    public BoundingBox getArea()
+    {
+        return area;
+    }
+
+    /**
+     * Return the statistics of the valid values in the area.
+     */
+    public RunningStatistics getStatistics()
+    {
+        return statistics;
+    }
+
+    /**
+     * Return the point with the highest valid value in the area, or null if there
+     * is none.
+     */
+    public DataPoint getHighest()
+    {
+        return highest;
+    }
+}
@@ -0,0 +1,19 @@
+/**
+ * A FileLoadListener is told by a FileLoader about each data file it has read and
+ * added to its cache, so that data derived from the files can be kept up to date.
+ *
+ * The listener is called on the thread that loaded the file, after the dataset is
+ * complete. Data that is found in the cache is not reported again.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public interface FileLoadListener
+{
+    /**
+     * Called when the data of a pollutant and year has been loaded.
+     *
+     * @param area The area the data was loaded for, or null for the whole file
+     */
+    void fileLoaded(String pollutant, String year, BoundingBox area, DataSet dataSet);
+}
@@ -1,21 +1,82 @@
 
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Loads the appropriate files
+ * 
+ * Loaded datasets are kept in a cache, so that showing the same pollutant and year
+ * again does not read the file again. The cache is limited by the estimated memory
+ * of the datasets it holds; when it is full, the least recently used datasets are
+ * dropped first.
  *
  * @author Olivier Burger
  * @version 1
  */
 public class FileLoader
 {
-    // instance variables - replace the example below with your own
+    /** The pollutants for which there are data files. */
+    public static final List<String> POLLUTANTS = List.of("NO2", "PM10", "PM2.5");
+    /** The years for which there are data files. */
+    public static final List<String> YEARS = List.of("2018", "2019", "2020", "2021", "2022", "2023");
+    
+    // default memory budget of the dataset cache
+    private static final long DEFAULT_CACHE_BUDGET = 256L * 1024 * 1024;
+    
     private DataLoader dataLoader;
+    // folder the data files are read from, or null to find them next to the classes
+    private Path dataFolder;
+    
+    // datasets by file path and area, in least recently used order
+    private LinkedHashMap<String, DataSet> cache;
+    // loads in progress, so that a file requested twice at once is read only once
+    private Map<String, PendingLoad> loading;
+    private List<FileLoadListener> loadListeners;
+    private long cacheBudget;
+    private long cacheBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
 
     /**
      * Constructor for objects of class FileLoader
      */
     public FileLoader()
     {
+        this(DEFAULT_CACHE_BUDGET);
+    }
+    
+    /**
+     * Constructor for a FileLoader whose cache may hold datasets up to the given
+     * estimated number of bytes.
+     */
+    public FileLoader(long cacheBudget)
+    {
+        this(cacheBudget, null);
+    }
+    
+    /**
+     * Constructor for a FileLoader that reads the data files from a folder on disk,
+     * which holds the UKAirPollutionData folder, instead of from next to the classes.
+     *
+     * @param cacheBudget The estimated number of bytes the cache may hold
+     * @param dataFolder The folder, or null to find the files next to the classes
+     */
+    public FileLoader(long cacheBudget, Path dataFolder)
+    {
+        this.dataFolder = dataFolder;
+        this.cache = new LinkedHashMap<>(32, 0.75f, true);
+        this.loading = new HashMap<>();
+        this.loadListeners = new CopyOnWriteArrayList<>();
+        this.cacheBudget = cacheBudget;
         this.dataLoader = new DataLoader();
+        this.dataLoader.setParallelism(Runtime.getRuntime().availableProcessors());
+        this.dataLoader.setBinaryCache(true);
     }
 
     /**
@@ -25,8 +86,286 @@ public class FileLoader
      * @param year The year
      */
     public DataSet loadPollutionData(String pollutant, String year) {
+        return loadPollutionData(pollutant, year, null, null);
+    }
+    
+    /**
+     * Load the pollutant data for the specified pollutant and year that lies inside
+     * an area. Rows outside the area are skipped while the file is read.
+     *
+     * @param pollutant The pollutant type (NO2, PM10, PM2.5)
+     * @param year The year
+     * @param area The area to keep, or null for the whole file
+     */
+    public DataSet loadPollutionData(String pollutant, String year, BoundingBox area) {
+        return loadPollutionData(pollutant, year, area, null);
+    }
+    
+    /**
+     * Load the pollutant data for the specified pollutant and year that lies inside
+     * an area, telling the listener about the rows while the file is read. If
+     * another thread is already reading the file, the listener is told about the
+     * rows it has read so far, and then about the rest, on that thread. The listener
+     * is not called if the data is already in the cache; the complete dataset is
+     * returned in every case.
+     * 
+     * The data of each area is cached separately.
+     *
+     * @param pollutant The pollutant type (NO2, PM10, PM2.5)
+     * @param year The year
+     * @param area The area to keep, or null for the whole file
+     * @param listener The listener to tell about the rows, or null
+     */
+    public DataSet loadPollutionData(String pollutant, String year, BoundingBox area, DataLoadListener listener) {
         String filePath = getDataFilePath(pollutant, year);
-        return dataLoader.loadDataFile(filePath);
+        String key = getCacheKey(filePath, area);
+        
+        PendingLoad pending;
+        PendingLoad reading = null;
+        synchronized (this) {
+            DataSet dataSet = getCached(key);
+            if (dataSet != null) {
+                hits++;
+                return dataSet;
+            }
+            pending = loading.get(key);
+            if (pending == null) {
+                reading = new PendingLoad(listener);
+                loading.put(key, reading);
+                misses++;
+            }
+            else if (listener != null) {
+                pending.join(listener);
+            }
+        }
+        if (pending != null) {
+            // another thread is already reading this file; wait for its result
+            return pending.result.join();
+        }
+        
+        DataSet dataSet = null;
+        try {
+            // the rows are always reported, so that loads joining later can be told about them
+            dataSet = readDataFile(filePath, area, reading);
+            if (dataSet != null) {
+                putCached(key, dataSet);
+            }
+        }
+        finally {
+            synchronized (this) {
+                loading.remove(key).result.complete(dataSet);
+            }
+        }
+        if (dataSet != null) {
+            for (FileLoadListener loadListener : loadListeners) {
+                loadListener.fileLoaded(pollutant, year, area, dataSet);
+            }
+        }
+        return dataSet;
+    }
+    
+    /**
+     * Add a listener to tell about every data file that is read from now on.
+     */
+    public void addFileLoadListener(FileLoadListener listener) {
+        loadListeners.add(listener);
+    }
+    
+    /**
+     * Remove a listener added with addFileLoadListener.
+     */
+    public void removeFileLoadListener(FileLoadListener listener) {
+        loadListeners.remove(listener);
+    }
+    
+    /**
+     * Give each row of the pollutant data for the specified pollutant and year that
+     * lies inside an area to the consumer. If the data is in the cache, the cached rows
+     * are used; otherwise the file is read without storing the rows, and nothing is
+     * added to the cache.
+     *
+     * @param pollutant The pollutant type (NO2, PM10, PM2.5)
+     * @param year The year
+     * @param area The area to keep, or null for the whole file
+     * @param consumer The consumer to give the rows to
+     * @return A dataset with the header information of the file, or null if there was
+     *         no data for the pollutant and year
+     */
+    public DataSet scanPollutionData(String pollutant, String year, BoundingBox area, DataRowConsumer consumer) {
+        String filePath = getDataFilePath(pollutant, year);
+        DataSet dataSet = getCached(getCacheKey(filePath, area));
+        if (dataSet != null) {
+            for (int i = 0; i < dataSet.size(); i++) {
+                consumer.accept(dataSet.getGridCode(i), dataSet.getX(i), dataSet.getY(i), dataSet.getValue(i));
+            }
+            return dataSet;
+        }
+        if (dataFolder == null) {
+            return dataLoader.scanDataFile(filePath, area, consumer);
+        }
+        Path file = findInDataFolder(filePath);
+        return file == null ? null : dataLoader.scanDataFile(file, area, consumer);
+    }
+    
+    /**
+     * Read the data of a file inside an area, from the data folder if there is one.
+     */
+    private DataSet readDataFile(String filePath, BoundingBox area, DataLoadListener listener) {
+        if (dataFolder == null) {
+            return dataLoader.loadDataFile(filePath, area, listener);
+        }
+        Path file = findInDataFolder(filePath);
+        return file == null ? null : dataLoader.loadDataFile(file, area, listener);
+    }
+    
+    /**
+     * Return a data file in the data folder, or null if it does not exist.
+     */
+    private Path findInDataFolder(String filePath) {
+        Path file = dataFolder.resolve(filePath);
+        if (!Files.isRegularFile(file)) {
+            System.out.println("Could not find file " + file);
+            return null;
+        }
+        return file;
+    }
+    
+    /**
+     * Return cached data that holds every row of the specified pollutant and year
+     * inside an area: the data loaded for that area, or else the data of the whole
+     * file. Nothing is read; if neither is in the cache, null is returned. This is
+     * not a load, so it does not count as a cache hit or miss.
+     *
+     * @param pollutant The pollutant type (NO2, PM10, PM2.5)
+     * @param year The year
+     * @param area The area, or null for the whole file
+     * @return The cached data, which may contain rows outside the area, or null
+     */
+    public DataSet getCachedData(String pollutant, String year, BoundingBox area) {
+        String filePath = getDataFilePath(pollutant, year);
+        DataSet dataSet = getCached(getCacheKey(filePath, area));
+        if (dataSet == null && area != null) {
+            dataSet = getCached(getCacheKey(filePath, null));
+        }
+        return dataSet;
+    }
+
+    /**
+     * Return the data file for the specified pollutant and year, or null if there is
+     * none or it is not a plain file on disk (for example when it is inside a jar).
+     */
+    public Path getDataFile(String pollutant, String year) {
+        if (dataFolder != null) {
+            Path file = dataFolder.resolve(getDataFilePath(pollutant, year));
+            return Files.isRegularFile(file) ? file : null;
+        }
+        URL url = getClass().getResource(getDataFilePath(pollutant, year));
+        if (url == null || !url.getProtocol().equals("file")) {
+            return null;
+        }
+        try {
+            return Path.of(url.toURI());
+        }
+        catch(URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return true if the data for the given pollutant and year is in the cache, so that
+     * loading it will not read a file.
+     */
+    public synchronized boolean isCached(String pollutant, String year) {
+        return isCached(pollutant, year, null);
+    }
+    
+    /**
+     * Return true if the data for the given pollutant, year and area is in the cache,
+     * so that loading it will not read a file.
+     */
+    public synchronized boolean isCached(String pollutant, String year, BoundingBox area) {
+        return cache.containsKey(getCacheKey(getDataFilePath(pollutant, year), area));
+    }
+    
+    /**
+     * Return the key of a file's data inside an area in the cache.
+     */
+    private static String getCacheKey(String filePath, BoundingBox area) {
+        return area == null ? filePath : filePath + "@" + area;
+    }
+    
+    /**
+     * Return the cached dataset for a file and area, or null if it is not cached.
+     * Only loads count as hits or misses, so this does not change the counters.
+     */
+    private synchronized DataSet getCached(String key) {
+        return cache.get(key);
+    }
+    
+    /**
+     * Add a dataset to the cache, dropping least recently used datasets until it fits
+     * in the budget. A dataset larger than the whole budget is not cached.
+     */
+    private synchronized void putCached(String key, DataSet dataSet) {
+        dataSet.trimToSize();
+        long bytes = dataSet.estimateMemoryBytes();
+        if (bytes > cacheBudget) {
+            return;
+        }
+        
+        DataSet previous = cache.put(key, dataSet);
+        if (previous != null) {
+            cacheBytes -= previous.estimateMemoryBytes();
+        }
+        cacheBytes += bytes;
+        
+        Iterator<DataSet> oldest = cache.values().iterator();
+        while (cacheBytes > cacheBudget && oldest.hasNext()) {
+            DataSet evicted = oldest.next();
+            if (evicted == dataSet) {
+                continue;
+            }
+            oldest.remove();
+            cacheBytes -= evicted.estimateMemoryBytes();
+            evictions++;
+        }
+    }
+    
+    /**
+     * Remove all datasets from the cache. The counters are kept.
+     */
+    public synchronized void clearCache() {
+        cache.clear();
+        cacheBytes = 0;
+    }
+    
+    /**
+     * Return the number of loads that were answered from the cache. Loads that waited
+     * for another thread to read the same file are not counted.
+     */
+    public synchronized long getCacheHits() {
+        return hits;
+    }
+    
+    /**
+     * Return the number of loads that had to read a file.
+     */
+    public synchronized long getCacheMisses() {
+        return misses;
+    }
+    
+    /**
+     * Return the number of datasets dropped from the cache to stay in the budget.
+     */
+    public synchronized long getCacheEvictions() {
+        return evictions;
+    }
+    
+    /**
+     * Return the estimated memory, in bytes, of the datasets in the cache.
+     */
+    public synchronized long getCacheBytes() {
+        return cacheBytes;
     }
     
     /**
@@ -58,4 +397,48 @@ public class FileLoader
         String filePath = String.format("UKAirPollutionData/%s/%s%s%s.csv", folder, filePrefix, year, suffix);
         return filePath;
     }
+    
+    /**
+     * A file that is being read: its result, once there is one, and the listeners to
+     * tell about its rows. A listener of a load that joins while the file is read is
+     * told about the rows read before it joined the next time rows are reported, so
+     * that it is only ever called on the reading thread.
+     */
+    private static class PendingLoad implements DataLoadListener
+    {
+        private CompletableFuture<DataSet> result = new CompletableFuture<>();
+        private List<DataLoadListener> listeners = new ArrayList<>();
+        // listeners that joined since rows were last reported
+        private List<DataLoadListener> joined = new ArrayList<>();
+        
+        PendingLoad(DataLoadListener listener) {
+            if (listener != null) {
+                listeners.add(listener);
+            }
+        }
+        
+        synchronized void join(DataLoadListener listener) {
+            joined.add(listener);
+        }
+        
+        @Override
+        public void rowsLoaded(DataSet dataSet, int from, int to) {
+            List<DataLoadListener> newListeners;
+            List<DataLoadListener> told;
+            synchronized (this) {
+                newListeners = new ArrayList<>(joined);
+                joined.clear();
+                listeners.addAll(newListeners);
+                told = new ArrayList<>(listeners);
+            }
+            if (from > 0) {
+                for (DataLoadListener listener : newListeners) {
+                    listener.rowsLoaded(dataSet, 0, from);
+                }
+            }
+            for (DataLoadListener listener : told) {
+                listener.rowsLoaded(dataSet, from, to);
+            }
+        }
+    }
 }
@@ -0,0 +1,176 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FileLoaderTest {
+
+    private static final String[] NO2_FILES = {"mapno22018.csv", "mapno22019.csv", "mapno22020.csv"};
+
+    /**
+     * Write a data folder with NO2 files for 2018 to 2020 of the given number of rows.
+     */
+    static Path writeDataFolder(int rows) throws IOException {
+        Path folder = Files.createTempDirectory("fileloader-test");
+        for (int i = 0; i < NO2_FILES.length; i++) {
+            StringBuilder contents = new StringBuilder("no2,,,\n" + (2018 + i) + ",,,\nannual mean,,,\nug m-3,,,\n,,,\ngridcode,x,y,no2\n");
+            for (int row = 0; row < rows; row++) {
+                contents.append(row + 1).append(',').append(500 + row * 1000).append(",500,").append(10 + i).append('\n');
+            }
+            writeFile(folder.resolve("UKAirPollutionData/NO2/" + NO2_FILES[i]), contents.toString());
+        }
+        return folder;
+    }
+
+    static void writeFile(Path file, String contents) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        file.toFile().deleteOnExit();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDataIsEvictedFirst() throws IOException {
+        Path folder = writeDataFolder(200);
+        FileLoader probe = new FileLoader(Long.MAX_VALUE, folder);
+        probe.loadPollutionData("NO2", "2018");
+        long bytes = probe.getCacheBytes();
+
+        FileLoader loader = new FileLoader(bytes * 5 / 2, folder);
+        DataSet first = loader.loadPollutionData("NO2", "2018");
+        loader.loadPollutionData("NO2", "2019");
+        // 2018 is now the most recently used, so 2019 is dropped to make room for 2020
+        assertSame(first, loader.loadPollutionData("NO2", "2018"));
+        loader.loadPollutionData("NO2", "2020");
+
+        assertTrue(loader.isCached("NO2", "2018"));
+        assertFalse(loader.isCached("NO2", "2019"));
+        assertTrue(loader.isCached("NO2", "2020"));
+        assertEquals(2 * bytes, loader.getCacheBytes());
+        assertEquals(1, loader.getCacheHits());
+        assertEquals(3, loader.getCacheMisses());
+        assertEquals(1, loader.getCacheEvictions());
+    }
+
+    @Test
+    public void testDataLargerThanTheBudgetIsNotCached() throws IOException {
+        FileLoader loader = new FileLoader(100, writeDataFolder(200));
+
+        assertEquals(200, loader.loadPollutionData("NO2", "2018").size());
+        assertFalse(loader.isCached("NO2", "2018"));
+        assertEquals(0, loader.getCacheBytes());
+        assertEquals(0, loader.getCacheEvictions());
+    }
+
+    @Test
+    public void testConcurrentLoadsOfOneFileReadItOnce() throws Exception {
+        FileLoader loader = new FileLoader(Long.MAX_VALUE, writeDataFolder(200));
+        AtomicInteger reads = new AtomicInteger();
+        loader.addFileLoadListener((pollutant, year, area, dataSet) -> reads.incrementAndGet());
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // the first load stops while it reads the file, until the others have asked too
+        DataSet[] results = new DataSet[4];
+        Thread first = new Thread(() -> results[0] = loader.loadPollutionData("NO2", "2018", null, (dataSet, from, to) -> {
+            reading.countDown();
+            try {
+                release.await();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        first.start();
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+        Thread[] others = new Thread[3];
+        for (int i = 0; i < others.length; i++) {
+            int index = i + 1;
+            others[i] = new Thread(() -> results[index] = loader.loadPollutionData("NO2", "2018"));
+            others[i].start();
+        }
+        Thread.sleep(100);
+        release.countDown();
+        first.join();
+        for (Thread other : others) {
+            other.join();
+        }
+
+        assertEquals(1, reads.get());
+        assertEquals(1, loader.getCacheMisses());
+        for (DataSet result : results) {
+            assertSame(results[0], result);
+        }
+    }
+
+    @Test
+    public void testListenerJoiningALoadIsToldAboutEveryRow() throws Exception {
+        // more rows than the loader reads in one batch, so rows are reported several times
+        int rows = 40000;
+        FileLoader loader = new FileLoader(Long.MAX_VALUE, writeDataFolder(rows));
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread first = new Thread(() -> loader.loadPollutionData("NO2", "2018", null, (dataSet, from, to) -> {
+            reading.countDown();
+            try {
+                release.await();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        first.start();
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+        int[] told = new int[rows];
+        Thread[] callers = new Thread[1];
+        Thread second = new Thread(() -> loader.loadPollutionData("NO2", "2018", null, (dataSet, from, to) -> {
+            callers[0] = Thread.currentThread();
+            for (int i = from; i < to; i++) {
+                told[dataSet.getGridCode(i) - 1]++;
+            }
+        }));
+        second.start();
+        // the second load waits for the first once it has joined it
+        while (second.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        first.join();
+        second.join();
+
+        for (int count : told) {
+            assertEquals(1, count);
+        }
+        assertSame(first, callers[0]);
+        assertEquals(1, loader.getCacheMisses());
+    }
+
+    @Test
+    public void testLookingInTheCacheIsNotALoad() throws IOException {
+        FileLoader loader = new FileLoader(Long.MAX_VALUE, writeDataFolder(10));
+        DataSet whole = loader.loadPollutionData("NO2", "2018");
+
+        // the area was not loaded, so the data of the whole file is returned
+        assertSame(whole, loader.getCachedData("NO2", "2018", BoundingBox.LONDON));
+        assertNull(loader.getCachedData("NO2", "2019", BoundingBox.LONDON));
+        new PollutionCube(loader, BoundingBox.LONDON);
+
+        assertEquals(0, loader.getCacheHits());
+        assertEquals(1, loader.getCacheMisses());
+    }
+
+    @Test
+    public void testMissingFileIsNotCached() throws IOException {
+        FileLoader loader = new FileLoader(Long.MAX_VALUE, writeDataFolder(10));
+
+        assertNull(loader.loadPollutionData("PM10", "2018"));
+        assertFalse(loader.isCached("PM10", "2018"));
+        assertNull(loader.getDataFile("PM10", "2018"));
+        assertNotNull(loader.getDataFile("NO2", "2018"));
+    }
+}
@@ -34,6 +34,13 @@ public class GUI extends Application
     private Stage primaryStage;
     private PollutionMap pollutionMap;
     private StatisticsApp statisticsApp;
+    // shared by all views, so that loaded datasets are cached across them
+    private FileLoader fileLoader = new FileLoader();
+    private DataPrefetcher prefetcher = new DataPrefetcher(fileLoader, BoundingBox.LONDON);
+    // keeps the statistics summaries while the statistics view is closed
+    private MultiYearAggregator aggregator = new MultiYearAggregator(fileLoader, BoundingBox.LONDON);
+    // every year of the map cells, for the map tooltips
+    private PollutionCube cube = new PollutionCube(fileLoader, BoundingBox.LONDON);
     /**
      * The start method is the main entry point for every JavaFX application.
      * It is called after the init() method has returned and after
@@ -45,6 +52,8 @@ public class GUI extends Application
     public void start(Stage primaryStage)
     {
         this.primaryStage = primaryStage;
+        // start reading all data files while the user looks at the welcome panel
+        prefetcher.start(PollutionMap.DEFAULT_POLLUTANT, PollutionMap.DEFAULT_YEAR);
         showWelcomePanel();
         primaryStage.setMaximized(true);
 
@@ -83,8 +92,14 @@ public class GUI extends Application
         );
         startButton.setOnAction(e -> showMap());
         
+        ProgressBar loadingBar = new ProgressBar();
+        loadingBar.setPrefWidth(200);
+        loadingBar.progressProperty().bind(prefetcher.progressProperty());
+        Label loadingLabel = new Label();
+        loadingLabel.setStyle("-fx-font-size: 12px;");
+        loadingLabel.textProperty().bind(prefetcher.messageProperty());
         
-        VBox contentBox = new VBox(20, titleLabel, infoLabel, instructionsLabel, startButton);
+        VBox contentBox = new VBox(20, titleLabel, infoLabel, instructionsLabel, startButton, loadingBar, loadingLabel);
         contentBox.setAlignment(Pos.CENTER);
         contentBox.setPadding(new Insets(40));
         
@@ -116,7 +131,7 @@ public class GUI extends Application
         mapView.setPreserveRatio(true);
         mapView.setFitWidth(800);
 
-        pollutionMap = new PollutionMap(mapView);
+        pollutionMap = new PollutionMap(mapView, fileLoader, cube);
 
         mapContainer.getChildren().addAll(mapView, pollutionMap.getCanvas());
 
@@ -191,7 +206,7 @@ public class GUI extends Application
         
         primaryStage.setTitle("Pollution Statistics");
         
-        statisticsApp = new StatisticsApp();
+        statisticsApp = new StatisticsApp(aggregator);
         BorderPane root = new BorderPane();
         
         MenuBar menuBar  = createMenuBar();
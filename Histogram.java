@@ -0,0 +1,153 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A Histogram counts values in bins of equal width, starting at 0. The last bin also
+ * counts every value above it.
+ *
+ * Histograms with the same bins can be merged by adding up their counts. They answer
+ * questions such as how many values reach a limit, exactly when the limit is on the
+ * edge of a bin.
+ *
+ * Values below 0 are missing values, and are not counted.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class Histogram
+{
+    private double binWidth;
+    private int[] counts;
+    private long count;
+
+    /**
+     * Create an empty histogram.
+     *
+     * @param binWidth  The width of each bin
+     * @param bins  The number of bins
+     */
+    public Histogram(double binWidth, int bins)
+    {
+        if (!(binWidth > 0) || bins < 1) {
+            throw new IllegalArgumentException("invalid bins: " + bins + " of width " + binWidth);
+        }
+        this.binWidth = binWidth;
+        this.counts = new int[bins];
+    }
+
+    /**
+     * Add a value. Missing values are ignored.
+     */
+    public void add(double value)
+    {
+        if (!(value >= 0)) {
+            return;
+        }
+        counts[binOf(value)]++;
+        count++;
+    }
+
+    /**
+     * Add the counts of another histogram with the same bins to this one.
+     */
+    public void merge(Histogram other)
+    {
+        if (other.binWidth != binWidth || other.counts.length != counts.length) {
+            throw new IllegalArgumentException("histograms have different bins");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+    }
+
+    /**
+     * Return the number of values added.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    public double getBinWidth()
+    {
+        return binWidth;
+    }
+
+    public int getBinCount()
+    {
+        return counts.length;
+    }
+
+    /**
+     * Return the lowest value counted in a bin.
+     */
+    public double getBinStart(int bin)
+    {
+        return bin * binWidth;
+    }
+
+    /**
+     * Return the number of values in a bin.
+     */
+    public int getCount(int bin)
+    {
+        return counts[bin];
+    }
+
+    /**
+     * Return the number of values that are at least as large as a limit. The count is
+     * exact if the limit is the start of a bin; otherwise the values in the bin that
+     * holds the limit are not counted. The last bin is the exception: it holds every
+     * value above its start, so for a limit inside it or above it, all of its values
+     * are counted, which may be more than reach the limit.
+     */
+    public long countAtLeast(double limit)
+    {
+        if (!(limit > 0)) {
+            return count;
+        }
+        long atLeast = 0;
+        for (int bin = (int) Math.min(Math.ceil(limit / binWidth), counts.length - 1); bin < counts.length; bin++) {
+            atLeast += counts[bin];
+        }
+        return atLeast;
+    }
+
+    /**
+     * Write the histogram to a stream.
+     */
+    public void write(DataOutput out) throws IOException
+    {
+        out.writeDouble(binWidth);
+        out.writeInt(counts.length);
+        out.writeLong(count);
+        for (int bin : counts) {
+            out.writeInt(bin);
+        }
+    }
+
+    /**
+     * Read a histogram written by write.
+     */
+    public static Histogram read(DataInput in) throws IOException
+    {
+        double binWidth = in.readDouble();
+        int bins = in.readInt();
+        if (bins < 1 || bins > 1 << 20) {
+            throw new IOException("invalid number of bins " + bins);
+        }
+        Histogram histogram = new Histogram(binWidth, bins);
+        histogram.count = in.readLong();
+        for (int i = 0; i < bins; i++) {
+            histogram.counts[i] = in.readInt();
+        }
+        return histogram;
+    }
+
+    private int binOf(double value)
+    {
+        return (int) Math.min(value / binWidth, counts.length - 1);
+    }
+}
@@ -0,0 +1,34 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void testCountAtLeastIsExactOnBinEdges() {
+        Histogram histogram = new Histogram(10, 5);
+        for (double value : new double[] {0, 5, 10, 19.9, 20, 35, -1}) {
+            histogram.add(value);
+        }
+
+        assertEquals(6, histogram.getCount());
+        assertEquals(6, histogram.countAtLeast(0));
+        assertEquals(4, histogram.countAtLeast(10));
+        assertEquals(2, histogram.countAtLeast(20));
+        // the bin that holds the limit is left out
+        assertEquals(1, histogram.countAtLeast(25));
+    }
+
+    @Test
+    public void testLimitsInTheLastBinCountAllOfIt() {
+        Histogram histogram = new Histogram(10, 5);
+        for (double value : new double[] {10, 40, 45, 120, 500}) {
+            histogram.add(value);
+        }
+
+        assertEquals(4, histogram.getCount(4));
+        assertEquals(4, histogram.countAtLeast(40));
+        // above the top edge only the last bin is left, and all of it is counted
+        assertEquals(4, histogram.countAtLeast(45));
+        assertEquals(4, histogram.countAtLeast(1000));
+    }
+}
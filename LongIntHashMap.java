@@ -0,0 +1,160 @@
+import java.util.Arrays;
+
+/**
+ * A LongIntHashMap maps long keys to non-negative int values without creating an
+ * object per entry.
+ *
+ * Keys and values are kept in two parallel arrays, and collisions are resolved by
+ * linear probing (open addressing). It is used, for example, to find the data row
+ * drawn at a screen position, with the x and y position packed into one long.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class LongIntHashMap
+{
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    // the value plus one, so that 0 marks an empty slot
+    private int[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * Create an empty map.
+     */
+    public LongIntHashMap()
+    {
+        this(16);
+    }
+
+    /**
+     * Create an empty map with room for the given number of entries before it grows.
+     */
+    public LongIntHashMap(int expectedSize)
+    {
+        int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 8) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Pack two ints, such as a screen x and y position, into one long key.
+     */
+    public static long pack(int high, int low)
+    {
+        return ((long) high << 32) | (low & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Return the first of the two ints packed into a key.
+     */
+    public static int unpackHigh(long key)
+    {
+        return (int) (key >> 32);
+    }
+
+    /**
+     * Return the second of the two ints packed into a key.
+     */
+    public static int unpackLow(long key)
+    {
+        return (int) key;
+    }
+
+    /**
+     * Map the key to the value, replacing any earlier value for the key.
+     *
+     * @param value  The value; must not be negative
+     */
+    public void put(long key, int value)
+    {
+        if (value < 0) {
+            throw new IllegalArgumentException("value must not be negative: " + value);
+        }
+        int slot = slotOf(key);
+        if (values[slot] == 0) {
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] = value + 1;
+        if (size > keys.length * LOAD_FACTOR) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * Return the value for the key, or -1 if the key is not in the map.
+     */
+    public int get(long key)
+    {
+        return values[slotOf(key)] - 1;
+    }
+
+    /**
+     * Return true if the key is in the map.
+     */
+    public boolean containsKey(long key)
+    {
+        return values[slotOf(key)] != 0;
+    }
+
+    /**
+     * Return the number of entries in the map.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Remove all entries, keeping the allocated arrays.
+     */
+    public void clear()
+    {
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    /**
+     * Return the slot that holds the key, or the empty slot where it would go.
+     */
+    private int slotOf(long key)
+    {
+        int slot = hash(key) & mask;
+        while (values[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity)
+    {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != 0) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Spread the bits of the key, so that keys that differ only in their high or low
+     * half still land in different slots.
+     */
+    private static int hash(long key)
+    {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,42 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class LongIntHashMapTest {
+
+    @Test
+    public void testPutGetAndReplace() {
+        LongIntHashMap map = new LongIntHashMap();
+
+        map.put(LongIntHashMap.pack(10, 20), 3);
+        map.put(LongIntHashMap.pack(20, 10), 4);
+        map.put(LongIntHashMap.pack(10, 20), 5);
+
+        assertEquals(2, map.size());
+        assertEquals(5, map.get(LongIntHashMap.pack(10, 20)));
+        assertEquals(4, map.get(LongIntHashMap.pack(20, 10)));
+        assertEquals(-1, map.get(LongIntHashMap.pack(10, 10)));
+        assertFalse(map.containsKey(LongIntHashMap.pack(0, 0)));
+    }
+
+    @Test
+    public void testGrowsAndKeepsAllEntries() {
+        LongIntHashMap map = new LongIntHashMap(4);
+
+        for (int i = 0; i < 5000; i++) {
+            map.put(LongIntHashMap.pack(i % 100, i / 100), i);
+        }
+
+        assertEquals(5000, map.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, map.get(LongIntHashMap.pack(i % 100, i / 100)));
+        }
+    }
+
+    @Test
+    public void testPackRoundTripsNegativeValues() {
+        long key = LongIntHashMap.pack(-2, -7);
+
+        assertEquals(-2, LongIntHashMap.unpackHigh(key));
+        assertEquals(-7, LongIntHashMap.unpackLow(key));
+    }
+}
@@ -0,0 +1,178 @@
+import javafx.application.Platform;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures how long it takes to redraw the overlay of a full London frame, and
+ * compares the OverlayRenderer with the original drawing of one translucent square
+ * per point through the canvas GraphicsContext.
+ *
+ * Each frame has a square for every 1 km cell of London, at the default map width.
+ * A canvas only records its drawing commands, so every frame is taken as a snapshot,
+ * which makes JavaFX draw it. The OverlayRenderer time is split into the part that
+ * runs on the loading thread (drawing the pixels and creating the image) and the part
+ * that is left for the JavaFX application thread (drawing the image on the canvas).
+ *
+ * Run main with the canvas width in pixels, or without arguments for the width of
+ * the map when the application starts. It starts the JavaFX platform, so it needs a
+ * display.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class MapRenderBenchmark
+{
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 50;
+    private static final int DEFAULT_WIDTH = 800;
+    // the square size and offset of the original map, at the default width
+    private static final int SQUARE_SIZE = 15;
+    private static final int SQUARE_OFFSET = 2;
+
+    private int width;
+    private int height;
+    private int count;
+    private int[] left;
+    private int[] top;
+    private double[] values;
+    private Canvas canvas;
+    private WritableImage snapshot;
+
+    /**
+     * Create a benchmark with one square for every 1 km cell of London, on a canvas of
+     * the given width.
+     */
+    public MapRenderBenchmark(int width)
+    {
+        BoundingBox area = BoundingBox.LONDON;
+        this.width = width;
+        this.height = (int) Math.ceil((double) width * (area.getMaxY() - area.getMinY()) / (area.getMaxX() - area.getMinX()));
+        int columns = (area.getMaxX() - area.getMinX()) / TilePyramid.CELL_SIZE + 1;
+        int rows = (area.getMaxY() - area.getMinY()) / TilePyramid.CELL_SIZE + 1;
+        left = new int[columns * rows];
+        top = new int[columns * rows];
+        values = new double[columns * rows];
+
+        // cell centres are at 500 m past each whole kilometre, as in the data files
+        Random random = new Random(42);
+        int firstX = area.getMinX() / TilePyramid.CELL_SIZE * TilePyramid.CELL_SIZE + TilePyramid.CELL_SIZE / 2;
+        int firstY = area.getMinY() / TilePyramid.CELL_SIZE * TilePyramid.CELL_SIZE + TilePyramid.CELL_SIZE / 2;
+        for (int x = firstX; x <= area.getMaxX(); x += TilePyramid.CELL_SIZE) {
+            for (int y = firstY; y <= area.getMaxY(); y += TilePyramid.CELL_SIZE) {
+                if (!area.contains(x, y)) {
+                    continue;
+                }
+                double screenX = (x - area.getMinX()) * (double) width / (area.getMaxX() - area.getMinX());
+                double screenY = height - (y - area.getMinY()) * (double) height / (area.getMaxY() - area.getMinY());
+                left[count] = (int) screenX - SQUARE_OFFSET;
+                top[count] = (int) screenY - SQUARE_OFFSET;
+                values[count] = random.nextDouble() * 70;
+                count++;
+            }
+        }
+        canvas = new Canvas(width, height);
+        snapshot = new WritableImage(width, height);
+    }
+
+    public static void main(String[] args)
+        throws InterruptedException
+    {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_WIDTH;
+        CountDownLatch done = new CountDownLatch(1);
+        Platform.startup(() -> {
+            try {
+                new MapRenderBenchmark(width).run();
+            }
+            finally {
+                done.countDown();
+            }
+        });
+        done.await();
+        Platform.exit();
+    }
+
+    /**
+     * Redraw the frame repeatedly both ways and print the time per frame. Runs on the
+     * JavaFX application thread.
+     */
+    public void run()
+    {
+        System.out.println("Benchmarking " + count + " squares on a " + width + "x" + height + " canvas");
+        double[] canvasTimes = new double[1];
+        double[] overlayTimes = new double[2];
+        measure(false, canvasTimes);
+        measure(true, overlayTimes);
+        double overlay = overlayTimes[0] + overlayTimes[1];
+        System.out.printf("  canvas fillRect:  %8.2f ms/frame%n", canvasTimes[0]);
+        System.out.printf("  overlay renderer: %8.2f ms/frame  (%.1fx)%n", overlay, canvasTimes[0] / overlay);
+        System.out.printf("    loading thread: %8.2f ms/frame%n", overlayTimes[0]);
+        System.out.printf("    FX thread:      %8.2f ms/frame  (%.1fx)%n", overlayTimes[1], canvasTimes[0] / overlayTimes[1]);
+    }
+
+    /**
+     * Fill in the average milliseconds per frame over the measured rounds. The
+     * canvas path has one time; the renderer has the time to render the image and the
+     * time to draw it on the canvas.
+     */
+    private void measure(boolean useRenderer, double[] times)
+    {
+        ColorScale scale = ColorScale.forPollutant("NO2", ColorScale.Scheme.BANDS);
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            long rendered = start;
+            if (useRenderer) {
+                OverlayRenderer renderer = new OverlayRenderer(width, height);
+                for (int i = 0; i < count; i++) {
+                    renderer.fillSquare(left[i], top[i], SQUARE_SIZE, scale.colorFor(values[i]));
+                }
+                WritableImage image = renderer.toImage();
+                rendered = System.nanoTime();
+                gc.clearRect(0, 0, width, height);
+                gc.drawImage(image, 0, 0);
+            }
+            else {
+                gc.clearRect(0, 0, width, height);
+                for (int i = 0; i < count; i++) {
+                    gc.setFill(getColorForValue(values[i]));
+                    gc.fillRect(left[i], top[i], SQUARE_SIZE, SQUARE_SIZE);
+                }
+            }
+            canvas.snapshot(null, snapshot);
+            long end = System.nanoTime();
+            if (round >= WARMUP_ROUNDS) {
+                if (useRenderer) {
+                    times[0] += (rendered - start) / 1e6 / MEASURED_ROUNDS;
+                    times[1] += (end - rendered) / 1e6 / MEASURED_ROUNDS;
+                }
+                else {
+                    times[0] += (end - start) / 1e6 / MEASURED_ROUNDS;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the colour of an NO2 value as the original map chose it, a new Color for
+     * every point.
+     */
+    private static Color getColorForValue(double value)
+    {
+        if (value < 20) {
+            return Color.rgb(0, 255, 0, 0.4);
+        }
+        else if (value < 40) {
+            return Color.rgb(255, 255, 0, 0.4);
+        }
+        else if (value < 60) {
+            return Color.rgb(255, 165, 0, 0.4);
+        }
+        else {
+            return Color.rgb(255, 0, 0, 0.4);
+        }
+    }
+}
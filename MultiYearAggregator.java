@@ -0,0 +1,360 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The MultiYearAggregator works out the statistics of a pollutant over all years
+ * inside an area: for each year the statistics of the valid values and the highest
+ * point, and the statistics and highest point of all years together.
+ *
+ * Each year is summarised in a single pass over its rows, and the years are
+ * summarised at the same time on a small pool of daemon threads. Years whose data is
+ * in the FileLoader's cache use the running statistics of the cached dataset and are
+ * not read at all. Otherwise the summary stored next to the data file (see
+ * SummaryFile) is used if it is up to date, and the file is only scanned if it is
+ * not; the new summary is then stored in the background. Only the attributes of a
+ * data file are looked at while a summary is being worked out; the checksum of its
+ * contents, which means reading the whole file, is left to the background write.
+ *
+ * The summary of a pollutant is kept until one of its data files changes on disk, as
+ * seen from the size and modification time of the files, so asking for it again only
+ * looks at the files' attributes.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class MultiYearAggregator
+{
+    private FileLoader fileLoader;
+    private BoundingBox area;
+    private ExecutorService executor;
+    // summaries by pollutant
+    private Map<String, Summary> summaries;
+    // summary files that are being written in the background
+    private List<Future<?>> pendingWrites;
+
+    /**
+     * Create an aggregator for the data inside an area.
+     *
+     * @param area The area to summarise, or null for whole files
+     */
+    public MultiYearAggregator(FileLoader fileLoader, BoundingBox area)
+    {
+        this.fileLoader = fileLoader;
+        this.area = area;
+        this.executor = Executors.newFixedThreadPool(FileLoader.YEARS.size(), new AggregateThreadFactory());
+        this.summaries = new HashMap<>();
+        this.pendingWrites = new ArrayList<>();
+    }
+
+    /**
+     * Return the summary of a pollutant over all years, working it out if there is
+     * none yet or its data files have changed since.
+     *
+     * @param pollutant The pollutant type (NO2, PM10, PM2.5)
+     */
+    public Summary getSummary(String pollutant)
+    {
+        String key = pollutant.toUpperCase();
+        List<String> signatures = getSignatures(pollutant);
+        synchronized (this) {
+            Summary summary = summaries.get(key);
+            if (summary != null && summary.signatures.equals(signatures)) {
+                return summary;
+            }
+        }
+
+        Summary summary = summarise(pollutant, signatures);
+        synchronized (this) {
+            summaries.put(key, summary);
+        }
+        return summary;
+    }
+
+    /**
+     * Wait until the summary files that were being written in the background when
+     * this was called have been stored.
+     */
+    public void awaitWrites() throws InterruptedException
+    {
+        List<Future<?>> writes;
+        synchronized (pendingWrites) {
+            writes = new ArrayList<>(pendingWrites);
+            pendingWrites.clear();
+        }
+        for (Future<?> write : writes) {
+            try {
+                write.get();
+            }
+            catch(ExecutionException e) {
+                throw new IllegalStateException("could not write a summary file", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Forget all summaries, so that they are worked out again when asked for.
+     */
+    public synchronized void clear()
+    {
+        summaries.clear();
+    }
+
+    /**
+     * Summarise every year of a pollutant in parallel, and combine the years.
+     */
+    private Summary summarise(String pollutant, List<String> signatures)
+    {
+        List<Future<DataSummary>> tasks = new ArrayList<>();
+        for (String year : FileLoader.YEARS) {
+            tasks.add(executor.submit(() -> summariseYear(pollutant, year)));
+        }
+
+        Summary summary = new Summary(pollutant, signatures);
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                DataSummary year = tasks.get(i).get();
+                if (year == null) {
+                    year = new DataSummary(pollutant, FileLoader.YEARS.get(i), "", "", area, new RunningStatistics(), null);
+                }
+                summary.years[i] = year;
+                summary.total.merge(year.getStatistics(), 0);
+                DataPoint highest = year.getHighest();
+                if (highest != null && (summary.highest == null || highest.value() > summary.highest.value())) {
+                    summary.highest = highest;
+                    summary.highestYear = FileLoader.YEARS.get(i);
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while summarising " + pollutant, e);
+        }
+        catch(ExecutionException e) {
+            throw new IllegalStateException("could not summarise " + pollutant, e.getCause());
+        }
+        return summary;
+    }
+
+    /**
+     * Summarise one year of a pollutant: from the cache if its data is loaded, from
+     * its summary file if that is up to date, or else by scanning its file once. A
+     * summary file that is missing or stale is written again in the background. For
+     * cached data the summary file is only checked against the size and time of the
+     * csv file, so its contents are never read on this thread.
+     *
+     * @return The summary, or null if there is no data for the year
+     */
+    private DataSummary summariseYear(String pollutant, String year)
+    {
+        DataSet cached = fileLoader.getCachedData(pollutant, year, area);
+        Path csvFile = fileLoader.getDataFile(pollutant, year);
+        Path summaryFile = null;
+        // the csv file as it is before its rows are looked at, to store with the summary
+        long csvSize = 0;
+        long csvModified = 0;
+        if (csvFile != null) {
+            try {
+                csvSize = Files.size(csvFile);
+                csvModified = Files.getLastModifiedTime(csvFile).toMillis();
+                summaryFile = SummaryFile.sidecarFor(csvFile, area);
+            }
+            catch(IOException e) {
+                // without the attributes no summary file can be checked or written
+            }
+        }
+        if (cached != null) {
+            DataSummary summary = DataSummary.of(cached, area);
+            if (summaryFile != null && !SummaryFile.isCurrent(summaryFile, csvSize, csvModified)) {
+                writeInBackground(summary, summaryFile, csvFile, csvSize, csvModified);
+            }
+            return summary;
+        }
+
+        if (summaryFile != null) {
+            DataSummary summary = SummaryFile.read(summaryFile, csvFile);
+            if (summary != null) {
+                return summary;
+            }
+        }
+        YearConsumer consumer = new YearConsumer();
+        DataSet header = fileLoader.scanPollutionData(pollutant, year, area, consumer);
+        if (header == null) {
+            return null;
+        }
+        DataSummary summary = new DataSummary(header, area, consumer.statistics, consumer.highest);
+        if (summaryFile != null) {
+            writeInBackground(summary, summaryFile, csvFile, csvSize, csvModified);
+        }
+        return summary;
+    }
+
+    /**
+     * Store a summary next to its csv file on one of the aggregator's threads, so that
+     * working out the checksum of the csv file does not hold up the caller. Nothing
+     * is stored if the csv file no longer has the size and time it had when the
+     * summary was made.
+     */
+    private void writeInBackground(DataSummary summary, Path summaryFile, Path csvFile, long csvSize, long csvModified)
+    {
+        Future<?> write = executor.submit(() -> {
+            try {
+                SummaryFile.write(summary, summaryFile, csvFile, csvSize, csvModified);
+            }
+            catch(IOException e) {
+                System.out.println("Could not write file " + summaryFile + ": " + e);
+            }
+        });
+        synchronized (pendingWrites) {
+            pendingWrites.removeIf(Future::isDone);
+            pendingWrites.add(write);
+        }
+    }
+
+    /**
+     * Return the size and modification time of each year's data file, which change
+     * when a file is replaced.
+     */
+    private List<String> getSignatures(String pollutant)
+    {
+        List<String> signatures = new ArrayList<>();
+        for (String year : FileLoader.YEARS) {
+            Path file = fileLoader.getDataFile(pollutant, year);
+            String signature = "none";
+            if (file != null) {
+                try {
+                    signature = Files.size(file) + "@" + Files.getLastModifiedTime(file).toMillis();
+                }
+                catch(IOException e) {
+                    signature = "unreadable";
+                }
+            }
+            signatures.add(signature);
+        }
+        return signatures;
+    }
+
+    /**
+     * The statistics of a pollutant over all years.
+     */
+    public static class Summary
+    {
+        private String pollutant;
+        private List<String> signatures;
+        private DataSummary[] years;
+        private RunningStatistics total;
+        private DataPoint highest;
+        private String highestYear;
+
+        private Summary(String pollutant, List<String> signatures)
+        {
+            this.pollutant = pollutant;
+            this.signatures = signatures;
+            this.years = new DataSummary[FileLoader.YEARS.size()];
+            this.total = new RunningStatistics();
+        }
+
+        public String getPollutant()
+        {
+            return pollutant;
+        }
+
+        /**
+         * Return the statistics of a year, given by its position in FileLoader.YEARS.
+         */
+        public RunningStatistics getStatistics(int year)
+        {
+            return years[year].getStatistics();
+        }
+
+        /**
+         * Return the average of the valid values of a year, or 0 if there are none.
+         */
+        public double getAverage(int year)
+        {
+            RunningStatistics statistics = getStatistics(year);
+            return statistics.getCount() > 0 ? statistics.getMean() : 0.0;
+        }
+
+        /**
+         * Return the point with the highest valid value of a year, or null if there
+         * is none.
+         */
+        public DataPoint getHighest(int year)
+        {
+            return years[year].getHighest();
+        }
+
+        /**
+         * Return the statistics of the valid values of all years together. Its
+         * highest value row does not refer to any one dataset.
+         */
+        public RunningStatistics getTotal()
+        {
+            return total;
+        }
+
+        /**
+         * Return the point with the highest valid value of all years, or null if
+         * there is none.
+         */
+        public DataPoint getHighest()
+        {
+            return highest;
+        }
+
+        /**
+         * Return the year of the highest point, or null if there is none.
+         */
+        public String getHighestYear()
+        {
+            return highestYear;
+        }
+    }
+
+    /**
+     * Keeps the statistics and the highest point of the rows it is given.
+     */
+    private static class YearConsumer implements DataRowConsumer
+    {
+        private RunningStatistics statistics = new RunningStatistics();
+        private DataPoint highest;
+        private int row;
+
+        @Override
+        public void accept(int gridCode, int x, int y, double value)
+        {
+            statistics.add(row++, value);
+            if (value >= 0 && (highest == null || value > highest.value())) {
+                highest = new DataPoint(gridCode, x, y, value);
+            }
+        }
+    }
+
+    /**
+     * Creates the daemon threads of the aggregator, so they do not keep the
+     * application alive.
+     */
+    private static class AggregateThreadFactory implements ThreadFactory
+    {
+        private AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task)
+        {
+            Thread thread = new Thread(task, "aggregate-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
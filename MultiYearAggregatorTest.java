@@ -0,0 +1,106 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class MultiYearAggregatorTest {
+
+    /**
+     * Write the NO2 file of a year with two rows in London, one missing value and one
+     * row outside London.
+     */
+    private static Path writeYear(Path folder, String year, double first, double second) throws IOException {
+        Path file = folder.resolve("UKAirPollutionData/NO2/mapno2" + year + ".csv");
+        FileLoaderTest.writeFile(file, "no2,,,\n" + year + ",,,\nannual mean,,,\nug m-3,,,\n,,,\ngridcode,x,y,no2\n"
+            + "1,520500,180500," + first + "\n"
+            + "2,521500,180500," + second + "\n"
+            + "3,400500,100500,99\n"
+            + "4,522500,180500,MISSING\n");
+        return file;
+    }
+
+    private static Path writeFolder() throws IOException {
+        Path folder = Files.createTempDirectory("aggregator-test");
+        writeYear(folder, "2018", 10, 20);
+        writeYear(folder, "2019", 11, 22);
+        writeYear(folder, "2020", 12, 24);
+        return folder;
+    }
+
+    @Test
+    public void testTotalsMatchTheDataOfEachYear() throws IOException {
+        Path folder = writeFolder();
+        FileLoader loader = new FileLoader(Long.MAX_VALUE, folder);
+        FileLoader reference = new FileLoader(Long.MAX_VALUE, folder);
+
+        MultiYearAggregator.Summary summary = new MultiYearAggregator(loader, BoundingBox.LONDON).getSummary("NO2");
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < FileLoader.YEARS.size(); i++) {
+            RunningStatistics statistics = summary.getStatistics(i);
+            DataSet dataSet = reference.loadPollutionData("NO2", FileLoader.YEARS.get(i), BoundingBox.LONDON);
+            if (dataSet == null) {
+                assertEquals(0, statistics.getCount());
+                assertNull(summary.getHighest(i));
+                continue;
+            }
+            assertEquals(dataSet.getStatistics().getCount(), statistics.getCount());
+            assertEquals(dataSet.getStatistics().getMean(), statistics.getMean(), 1e-9);
+            assertEquals(dataSet.getHighestDataPoint(), summary.getHighest(i));
+            count += statistics.getCount();
+            sum += statistics.getSum();
+        }
+
+        RunningStatistics total = summary.getTotal();
+        assertEquals(6, count);
+        assertEquals(count, total.getCount());
+        assertEquals(sum / count, total.getMean(), 1e-9);
+        assertEquals(10.0, total.getMin());
+        assertEquals(24.0, summary.getHighest().value());
+        assertEquals(521500, summary.getHighest().x());
+        assertEquals("2020", summary.getHighestYear());
+    }
+
+    @Test
+    public void testSummaryIsWorkedOutAgainWhenAFileChanges() throws Exception {
+        Path folder = writeFolder();
+        FileLoader loader = new FileLoader(Long.MAX_VALUE, folder);
+        MultiYearAggregator aggregator = new MultiYearAggregator(loader, BoundingBox.LONDON);
+
+        MultiYearAggregator.Summary summary = aggregator.getSummary("NO2");
+        assertSame(summary, aggregator.getSummary("NO2"));
+        aggregator.awaitWrites();
+
+        // a new size, as the time may not change if the file is written again at once
+        writeYear(folder, "2019", 11, 50.25);
+        MultiYearAggregator.Summary changed = aggregator.getSummary("NO2");
+        assertNotSame(summary, changed);
+        assertEquals(50.25, changed.getHighest().value());
+        assertEquals("2019", changed.getHighestYear());
+        assertEquals((10 + 20 + 11 + 50.25 + 12 + 24) / 6, changed.getTotal().getMean(), 1e-9);
+        assertSame(changed, aggregator.getSummary("NO2"));
+    }
+
+    @Test
+    public void testStaleSummaryFileIsRewrittenFromCachedData() throws Exception {
+        Path folder = writeFolder();
+        FileLoader loader = new FileLoader(Long.MAX_VALUE, folder);
+        MultiYearAggregator aggregator = new MultiYearAggregator(loader, BoundingBox.LONDON);
+        aggregator.getSummary("NO2");
+        aggregator.awaitWrites();
+
+        Path csv = loader.getDataFile("NO2", "2018");
+        Path summaryFile = SummaryFile.sidecarFor(csv, BoundingBox.LONDON);
+        Files.write(summaryFile, new byte[] {1, 2, 3});
+        loader.loadPollutionData("NO2", "2018", BoundingBox.LONDON);
+        aggregator.clear();
+        aggregator.getSummary("NO2");
+        aggregator.awaitWrites();
+
+        DataSummary read = SummaryFile.read(summaryFile, csv);
+        assertNotNull(read);
+        assertEquals(2, read.getStatistics().getCount());
+        assertEquals(20.0, read.getHighest().value());
+    }
+}
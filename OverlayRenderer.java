@@ -0,0 +1,196 @@
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import java.util.Arrays;
+
+/**
+ * An OverlayRenderer draws the pollution overlay into a plain int array of pixels,
+ * which can then be turned into an image in one step.
+ *
+ * Pixels are premultiplied ARGB values (alpha in the top byte, and each colour
+ * channel already multiplied by alpha). Squares are blended over what is already in
+ * the buffer with the usual "source over" rule, so overlapping translucent squares
+ * look the same as when drawn one after the other on a canvas. No JavaFX objects are
+ * used while drawing, so the overlay can be rendered on any thread.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class OverlayRenderer
+{
+    private int width;
+    private int height;
+    private int[] pixels;
+
+    /**
+     * Create a renderer with a transparent buffer of the given size.
+     */
+    public OverlayRenderer(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+    }
+
+    /**
+     * Create a renderer that starts from a copy of an earlier buffer of the same size.
+     */
+    public OverlayRenderer(int width, int height, int[] pixels)
+    {
+        this.width = width;
+        this.height = height;
+        this.pixels = Arrays.copyOf(pixels, width * height);
+    }
+
+    /**
+     * Return a premultiplied ARGB value for a colour with the given opacity.
+     *
+     * @param red  The red channel, 0 to 255
+     * @param green  The green channel, 0 to 255
+     * @param blue  The blue channel, 0 to 255
+     * @param opacity  The opacity, 0.0 to 1.0
+     */
+    public static int premultiply(int red, int green, int blue, double opacity)
+    {
+        int alpha = (int) Math.round(opacity * 255);
+        return alpha << 24
+             | ((red * alpha + 127) / 255) << 16
+             | ((green * alpha + 127) / 255) << 8
+             | ((blue * alpha + 127) / 255);
+    }
+
+    /**
+     * Make the whole buffer transparent.
+     */
+    public void clear()
+    {
+        Arrays.fill(pixels, 0);
+    }
+
+    /**
+     * Blend a square of the given colour over the buffer. Parts of the square outside
+     * the buffer are ignored.
+     *
+     * @param left  The left edge of the square
+     * @param top  The top edge of the square
+     * @param size  The width and height of the square
+     * @param color  The colour, as premultiplied ARGB
+     */
+    public void fillSquare(int left, int top, int size, int color)
+    {
+        fillRect(left, top, left + size, top + size, color);
+    }
+
+    /**
+     * Blend a rectangle of the given colour over the buffer. The right and bottom edges
+     * are not included. Parts of the rectangle outside the buffer are ignored.
+     */
+    public void fillRect(int left, int top, int right, int bottom, int color)
+    {
+        int x0 = Math.max(left, 0);
+        int y0 = Math.max(top, 0);
+        int x1 = Math.min(right, width);
+        int y1 = Math.min(bottom, height);
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            for (int x = x0; x < x1; x++) {
+                pixels[row + x] = blend(color, pixels[row + x]);
+            }
+        }
+    }
+
+    /**
+     * Make a rectangle of the buffer transparent. The right and bottom edges are not
+     * included.
+     */
+    public void clearRect(int left, int top, int right, int bottom)
+    {
+        int x0 = Math.max(left, 0);
+        int x1 = Math.min(right, width);
+        if (x0 >= x1) {
+            return;
+        }
+        for (int y = Math.max(top, 0); y < Math.min(bottom, height); y++) {
+            Arrays.fill(pixels, y * width + x0, y * width + x1, 0);
+        }
+    }
+
+    /**
+     * Draw some squares again after their colours have changed, leaving the rest of the
+     * buffer as it is. The area of each changed square is cleared, and every square
+     * that overlaps it is blended again in its original order, but only inside that
+     * area. The result is the same as drawing all squares again, at a cost that grows
+     * with the number of changed squares.
+     *
+     * @param left  The left edge of each square, in drawing order
+     * @param top  The top edge of each square
+     * @param colors  The new colour of each square, as premultiplied ARGB
+     * @param size  The width and height of every square
+     * @param index  The index over the squares
+     * @param changed  The numbers of the squares whose colour has changed
+     * @param changedCount  The number of entries used in changed
+     */
+    public void repaintSquares(int[] left, int[] top, int[] colors, int size, ScreenGridIndex index,
+                               int[] changed, int changedCount)
+    {
+        for (int c = 0; c < changedCount; c++) {
+            int areaLeft = left[changed[c]];
+            int areaTop = top[changed[c]];
+            int areaRight = areaLeft + size;
+            int areaBottom = areaTop + size;
+            clearRect(areaLeft, areaTop, areaRight, areaBottom);
+            for (int i : index.findOverlapping(areaLeft, areaTop, areaRight, areaBottom)) {
+                fillRect(Math.max(left[i], areaLeft), Math.max(top[i], areaTop),
+                         Math.min(left[i] + size, areaRight), Math.min(top[i] + size, areaBottom),
+                         colors[i]);
+            }
+        }
+    }
+
+    /**
+     * Blend a premultiplied source colour over a premultiplied destination colour.
+     */
+    private static int blend(int source, int destination)
+    {
+        if (destination == 0) {
+            return source;
+        }
+        int inverse = 255 - (source >>> 24);
+        int a = (source >>> 24) + ((destination >>> 24) * inverse + 127) / 255;
+        int r = ((source >> 16) & 0xFF) + (((destination >> 16) & 0xFF) * inverse + 127) / 255;
+        int g = ((source >> 8) & 0xFF) + (((destination >> 8) & 0xFF) * inverse + 127) / 255;
+        int b = (source & 0xFF) + ((destination & 0xFF) * inverse + 127) / 255;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Return the pixel buffer, row by row.
+     */
+    public int[] getPixels()
+    {
+        return pixels;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Copy the buffer into a new image with a single pixel transfer. The image is not
+     * yet shown anywhere, so this may be called from any thread.
+     */
+    public WritableImage toImage()
+    {
+        WritableImage image = new WritableImage(Math.max(width, 1), Math.max(height, 1));
+        if (width > 0 && height > 0) {
+            image.getPixelWriter().setPixels(0, 0, width, height,
+                                             PixelFormat.getIntArgbPreInstance(), pixels, 0, width);
+        }
+        return image;
+    }
+}
@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+public class OverlayRendererTest {
+
+    private static final int SIZE = 15;
+
+    @Test
+    public void testRepaintingChangedSquaresMatchesDrawingEverything() {
+        Random random = new Random(7);
+        int width = 200;
+        int height = 150;
+        int count = 400;
+        int[] left = new int[count];
+        int[] top = new int[count];
+        int[] before = new int[count];
+        int[] after = new int[count];
+        int[] palette = {
+            OverlayRenderer.premultiply(0, 255, 0, 0.4),
+            OverlayRenderer.premultiply(255, 255, 0, 0.4),
+            OverlayRenderer.premultiply(255, 165, 0, 0.4),
+            OverlayRenderer.premultiply(255, 0, 0, 0.4)
+        };
+        for (int i = 0; i < count; i++) {
+            // squares overlap each other and stick out over every edge
+            left[i] = random.nextInt(width + 20) - 10;
+            top[i] = random.nextInt(height + 20) - 10;
+            before[i] = palette[random.nextInt(palette.length)];
+            after[i] = random.nextInt(5) == 0 ? palette[random.nextInt(palette.length)] : before[i];
+        }
+
+        OverlayRenderer updated = new OverlayRenderer(width, height, drawAll(width, height, left, top, before).getPixels());
+        int[] changed = new int[count];
+        int changedCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (after[i] != before[i]) {
+                changed[changedCount++] = i;
+            }
+        }
+        ScreenGridIndex index = new ScreenGridIndex(left, top, count, SIZE, width, height);
+        updated.repaintSquares(left, top, after, SIZE, index, changed, changedCount);
+
+        assertTrue(changedCount > 0);
+        assertArrayEquals(drawAll(width, height, left, top, after).getPixels(), updated.getPixels());
+    }
+
+    @Test
+    public void testFindOverlappingReturnsEachSquareOnceInOrder() {
+        int[] left = {0, 10, 40, 5};
+        int[] top = {0, 10, 40, 0};
+        ScreenGridIndex index = new ScreenGridIndex(left, top, 4, SIZE, 100, 100);
+
+        assertArrayEquals(new int[] {0, 1, 3}, index.findOverlapping(0, 0, 20, 20));
+        assertArrayEquals(new int[] {2}, index.findOverlapping(54, 54, 60, 60));
+        assertArrayEquals(new int[0], index.findOverlapping(55, 55, 60, 60));
+    }
+
+    @Test
+    public void testFindReturnsTheSquareWithTheClosestCentre() {
+        int[] left = {0, 10, 40, 30, 60};
+        int[] top = {0, 10, 0, 0, 60};
+        ScreenGridIndex index = new ScreenGridIndex(left, top, 5, SIZE, 100, 100);
+
+        // the centres are at 7.5 and 17.5, so square 0 is closer by a fifth of a pixel
+        assertEquals(0, index.find(12.4, 12.4));
+        assertEquals(1, index.find(12.6, 12.6));
+        // squares 2 and 3 are equally close, and 2 was added first
+        assertEquals(2, index.find(42.5, 7.5));
+        // square 4 ends where the buckets at 75 start, and includes its right and bottom edges
+        assertEquals(4, index.find(75, 75));
+        assertEquals(4, index.find(75, 67));
+        assertEquals(4, index.find(67, 75));
+        assertEquals(-1, index.find(75.5, 75));
+    }
+
+    @Test
+    public void testFindOutsideTheSquaresReturnsNothing() {
+        ScreenGridIndex index = new ScreenGridIndex(new int[] {0}, new int[] {0}, 1, SIZE, 100, 100);
+
+        assertEquals(0, index.find(0, 0));
+        assertEquals(-1, index.find(-0.5, 5));
+        assertEquals(-1, index.find(5, -0.5));
+        assertEquals(-1, index.find(150, 5));
+        assertEquals(-1, index.find(5, 1000));
+        assertEquals(-1, index.find(50, 50));
+    }
+
+    private static OverlayRenderer drawAll(int width, int height, int[] left, int[] top, int[] colors) {
+        OverlayRenderer renderer = new OverlayRenderer(width, height);
+        for (int i = 0; i < colors.length; i++) {
+            renderer.fillSquare(left[i], top[i], SIZE, colors[i]);
+        }
+        return renderer;
+    }
+}
@@ -0,0 +1,253 @@
+import java.util.Arrays;
+
+/**
+ * A PollutionCube holds the values of every pollutant and year for each cell of an
+ * area, lined up by grid code, so that a cell can be compared across years and
+ * pollutants without looking through the datasets.
+ *
+ * The values are kept in one primitive array, cell by cell; the values of a cell are
+ * ordered by pollutant and then by year, in the order of FileLoader.POLLUTANTS and
+ * FileLoader.YEARS. The years of one pollutant for one cell are therefore next to each
+ * other. Cells are found from their grid code through a hash map. A value that is
+ * missing, or that belongs to a file that has not been loaded, is NaN.
+ *
+ * A cube can listen to a FileLoader, and then adds the data of every file loaded for
+ * its area. Adding a pollutant and year again replaces its values.
+ *
+ * The trends of the cells over the years (see CellTrends) are worked out when they
+ * are first asked for, and kept until values are added.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class PollutionCube implements FileLoadListener
+{
+    /** The number of values of each cell. */
+    public static final int VALUES_PER_CELL = FileLoader.POLLUTANTS.size() * FileLoader.YEARS.size();
+
+    private BoundingBox area;
+    private LongIntHashMap cells;
+    private int cellCount;
+    private int[] gridCodes;
+    private int[] xs;
+    private int[] ys;
+    private double[] values;
+    // which pollutants and years have been added, by pollutant * years + year
+    private boolean[] loaded;
+    private int version;
+    // trends of the current values, worked out when first asked for
+    private CellTrends trends;
+
+    /**
+     * Create an empty cube for the cells inside an area.
+     *
+     * @param area The area, or null for all cells
+     */
+    public PollutionCube(BoundingBox area)
+    {
+        this.area = area;
+        this.cells = new LongIntHashMap(1024);
+        this.gridCodes = new int[1024];
+        this.xs = new int[1024];
+        this.ys = new int[1024];
+        this.values = new double[1024 * VALUES_PER_CELL];
+        this.loaded = new boolean[VALUES_PER_CELL];
+        Arrays.fill(values, Double.NaN);
+    }
+
+    /**
+     * Create a cube for the cells inside an area that holds the data the FileLoader
+     * has in its cache for that area, and adds every file the loader reads for it
+     * from now on.
+     *
+     * @param area The area, or null for all cells
+     */
+    public PollutionCube(FileLoader fileLoader, BoundingBox area)
+    {
+        this(area);
+        fileLoader.addFileLoadListener(this);
+        for (String pollutant : FileLoader.POLLUTANTS) {
+            for (String year : FileLoader.YEARS) {
+                DataSet dataSet = fileLoader.getCachedData(pollutant, year, area);
+                if (dataSet != null) {
+                    add(pollutant, year, dataSet);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the data of a file loaded for the area of this cube, or for the whole file.
+     */
+    @Override
+    public void fileLoaded(String pollutant, String year, BoundingBox loadedArea, DataSet dataSet)
+    {
+        if (loadedArea == null || loadedArea.equals(area)) {
+            add(pollutant, year, dataSet);
+        }
+    }
+
+    /**
+     * Add the values of a pollutant and year, replacing any that were added before.
+     * Rows outside the area of the cube are left out.
+     */
+    public synchronized void add(String pollutant, String year, DataSet dataSet)
+    {
+        int offset = pollutantIndex(pollutant) * FileLoader.YEARS.size() + yearIndex(year);
+        for (int cell = 0; cell < cellCount; cell++) {
+            values[cell * VALUES_PER_CELL + offset] = Double.NaN;
+        }
+        for (int i = 0; i < dataSet.size(); i++) {
+            int x = dataSet.getX(i);
+            int y = dataSet.getY(i);
+            if (area != null && !area.contains(x, y)) {
+                continue;
+            }
+            int gridCode = dataSet.getGridCode(i);
+            int cell = cells.get(gridCode);
+            if (cell == -1) {
+                cell = addCell(gridCode, x, y);
+            }
+            double value = dataSet.getValue(i);
+            values[cell * VALUES_PER_CELL + offset] = value >= 0 ? value : Double.NaN;
+        }
+        loaded[offset] = true;
+        version++;
+    }
+
+    private int addCell(int gridCode, int x, int y)
+    {
+        if (cellCount == gridCodes.length) {
+            int capacity = cellCount * 2;
+            gridCodes = Arrays.copyOf(gridCodes, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            values = Arrays.copyOf(values, capacity * VALUES_PER_CELL);
+            Arrays.fill(values, cellCount * VALUES_PER_CELL, values.length, Double.NaN);
+        }
+        gridCodes[cellCount] = gridCode;
+        xs[cellCount] = x;
+        ys[cellCount] = y;
+        cells.put(gridCode, cellCount);
+        return cellCount++;
+    }
+
+    /**
+     * Return the number of cells.
+     */
+    public synchronized int getCellCount()
+    {
+        return cellCount;
+    }
+
+    /**
+     * Return the cell of a grid code, or -1 if there is none.
+     */
+    public synchronized int cellOf(int gridCode)
+    {
+        return cells.get(gridCode);
+    }
+
+    public synchronized int getGridCode(int cell)
+    {
+        return gridCodes[cell];
+    }
+
+    /**
+     * Return the x coordinate of the centre of a cell.
+     */
+    public synchronized int getX(int cell)
+    {
+        return xs[cell];
+    }
+
+    /**
+     * Return the y coordinate of the centre of a cell.
+     */
+    public synchronized int getY(int cell)
+    {
+        return ys[cell];
+    }
+
+    /**
+     * Return true if the values of a pollutant and year have been added.
+     */
+    public synchronized boolean hasData(String pollutant, String year)
+    {
+        return loaded[pollutantIndex(pollutant) * FileLoader.YEARS.size() + yearIndex(year)];
+    }
+
+    /**
+     * Return the number of changes to the cube so far, which changes whenever data is
+     * added, so that results worked out from the cube can tell if they are out of date.
+     */
+    public synchronized int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Return the trends of all cells and pollutants, working them out if values have
+     * been added since they were last asked for.
+     */
+    public synchronized CellTrends getTrends()
+    {
+        if (trends == null || trends.getVersion() != version) {
+            trends = CellTrends.compute(values, cellCount, version);
+        }
+        return trends;
+    }
+
+    /**
+     * Return the value of a grid code for a pollutant and year, or NaN if it is
+     * missing.
+     */
+    public synchronized double getValue(int gridCode, String pollutant, String year)
+    {
+        int cell = cells.get(gridCode);
+        if (cell == -1) {
+            return Double.NaN;
+        }
+        return values[cell * VALUES_PER_CELL + pollutantIndex(pollutant) * FileLoader.YEARS.size() + yearIndex(year)];
+    }
+
+    /**
+     * Return the values of a grid code for a pollutant in each year, in the order of
+     * FileLoader.YEARS, or null if the cube has no cell for the grid code. Missing
+     * values are NaN.
+     */
+    public synchronized double[] getSeries(int gridCode, String pollutant)
+    {
+        int cell = cells.get(gridCode);
+        if (cell == -1) {
+            return null;
+        }
+        int from = cell * VALUES_PER_CELL + pollutantIndex(pollutant) * FileLoader.YEARS.size();
+        return Arrays.copyOfRange(values, from, from + FileLoader.YEARS.size());
+    }
+
+    /**
+     * Return the position of a pollutant in FileLoader.POLLUTANTS.
+     */
+    public static int pollutantIndex(String pollutant)
+    {
+        for (int i = 0; i < FileLoader.POLLUTANTS.size(); i++) {
+            if (FileLoader.POLLUTANTS.get(i).equalsIgnoreCase(pollutant)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("unknown pollutant: " + pollutant);
+    }
+
+    /**
+     * Return the position of a year in FileLoader.YEARS.
+     */
+    public static int yearIndex(String year)
+    {
+        int index = FileLoader.YEARS.indexOf(year);
+        if (index == -1) {
+            throw new IllegalArgumentException("unknown year: " + year);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class PollutionCubeTest {
+
+    private static DataSet createYear(String year, double offset) {
+        DataSet dataSet = new DataSet("NO2", year, "annual mean", "µg/m³");
+        dataSet.addData(1, 500, 500, 10 + offset);
+        dataSet.addData(2, 1500, 500, 20 + offset);
+        dataSet.addData(3, 9500, 9500, 30 + offset);
+        return dataSet;
+    }
+
+    @Test
+    public void testSeriesHoldsEveryYearOfACell() {
+        PollutionCube cube = new PollutionCube(new BoundingBox(0, 0, 5000, 5000));
+        cube.add("NO2", "2018", createYear("2018", 0));
+        cube.add("NO2", "2020", createYear("2020", 2));
+        cube.add("PM10", "2020", createYear("2020", 100));
+
+        assertEquals(2, cube.getCellCount());
+        assertEquals(-1, cube.cellOf(3));
+        assertEquals(1500, cube.getX(cube.cellOf(2)));
+        double[] series = cube.getSeries(2, "no2");
+        assertEquals(FileLoader.YEARS.size(), series.length);
+        assertEquals(20.0, series[0]);
+        assertTrue(Double.isNaN(series[1]));
+        assertEquals(22.0, series[2]);
+        assertEquals(120.0, cube.getValue(2, "PM10", "2020"));
+        assertTrue(cube.hasData("PM10", "2020"));
+        assertFalse(cube.hasData("PM2.5", "2020"));
+        assertNull(cube.getSeries(42, "NO2"));
+    }
+
+    @Test
+    public void testAddingAYearAgainReplacesItsValues() {
+        PollutionCube cube = new PollutionCube((BoundingBox) null);
+        cube.add("NO2", "2023", createYear("2023", 0));
+        int version = cube.getVersion();
+
+        DataSet replaced = new DataSet("NO2", "2023", "annual mean", "µg/m³");
+        replaced.addData(1, 500, 500, 11);
+        replaced.addData(2, 1500, 500, -1);
+        cube.add("NO2", "2023", replaced);
+
+        assertEquals(11.0, cube.getValue(1, "NO2", "2023"));
+        assertTrue(Double.isNaN(cube.getValue(2, "NO2", "2023")));
+        assertTrue(Double.isNaN(cube.getValue(3, "NO2", "2023")));
+        assertTrue(cube.getVersion() > version);
+    }
+
+    @Test
+    public void testCellsGrowPastTheFirstCapacity() {
+        PollutionCube cube = new PollutionCube((BoundingBox) null);
+        DataSet dataSet = new DataSet("PM2.5", "2019", "annual mean", "µg/m³");
+        for (int i = 0; i < 5000; i++) {
+            dataSet.addData(i, i * 1000 + 500, 500, i % 40);
+        }
+        cube.add("PM2.5", "2019", dataSet);
+
+        assertEquals(5000, cube.getCellCount());
+        assertEquals(4999 % 40.0, cube.getValue(4999, "PM2.5", "2019"));
+        assertTrue(Double.isNaN(cube.getValue(4999, "NO2", "2019")));
+    }
+}
@@ -5,10 +5,20 @@ import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.geometry.Pos;
 import javafx.geometry.Insets;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javafx.application.Platform;
 import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
 import javafx.util.Duration;
+import javafx.animation.AnimationTimer;
+import javafx.animation.PauseTransition;
 import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.XYChart;
@@ -17,30 +27,143 @@ import javafx.scene.chart.XYChart;
  * The PollutionMap class displays pollution data on a map of London.
  * It is shown as colored circles on the map and lets users 
  * select different types of pollution data.
+ * The map can be zoomed with the mouse wheel or the zoom buttons, and moved
+ * by dragging it. Zoomed out past the whole map, London is drawn smaller, the data
+ * of the whole file is loaded so that the area around London is shown as well, and
+ * the data is shown as averages over larger blocks.
+ * In the trend mode each cell is coloured by how fast its values rose or fell
+ * over all years, instead of by the values of one year.
  *
  * @author Olivier Burger
  * @version 1
  */
 public class PollutionMap
 {
+    /** The pollutant shown when the map is first opened. */
+    public static final String DEFAULT_POLLUTANT = "NO2";
+    /** The year shown when the map is first opened. */
+    public static final String DEFAULT_YEAR = "2023";
+    
+    /**
+     * What the colours of the map show.
+     */
+    public enum MapMode
+    {
+        VALUES("Values of one year"),
+        TREND("Trend " + FileLoader.YEARS.get(0) + "-" + FileLoader.YEARS.get(FileLoader.YEARS.size() - 1));
+        
+        private String label;
+        
+        MapMode(String label)
+        {
+            this.label = label;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return label;
+        }
+    }
+    
     private ImageView mapView;
     private Canvas canvas;
-    private String pollutant = "NO2";
-    private String year = "2023";
+    private String pollutant = DEFAULT_POLLUTANT;
+    private String year = DEFAULT_YEAR;
+    private ColorScale.Scheme colorScheme = ColorScale.Scheme.BANDS;
+    private MapMode mode = MapMode.VALUES;
+    private HBox legendBox;
+    
+    private FileLoader fileLoader;
+    // values of all years, for the tooltips and the trend mode
+    private PollutionCube cube;
     
-    private FileLoader fileLoader = new FileLoader();
+    // only the data inside the map is loaded, unless the map is zoomed out past it
+    private static final BoundingBox MAP_AREA = BoundingBox.LONDON;
     
     //Map coordinates
-    private int leftX = 510394; //Left edge of map
-    private int rightX = 553297; //Right edge of map
-    private int bottomY = 168504; //Bottom edge of map
-    private int topY = 193305; //Top edge of map
+    private int leftX = MAP_AREA.getMinX(); //Left edge of map
+    private int rightX = MAP_AREA.getMaxX(); //Right edge of map
+    private int bottomY = MAP_AREA.getMinY(); //Bottom edge of map
+    private int topY = MAP_AREA.getMaxY(); //Top edge of map
+    
+    // the part of the map that is shown, in grid coordinates
+    private double viewLeft = leftX;
+    private double viewBottom = bottomY;
+    private double viewWidth = rightX - leftX;
+    // where a drag started, in canvas pixels, and the view at that time
+    private double dragStartX;
+    private double dragStartY;
+    private double dragStartLeft;
+    private double dragStartBottom;
+    
+    private static final double MAX_ZOOM = 16;
+    // zoomed out this far, the 8 km blocks of the coarsest tile level are used
+    private static final double MIN_ZOOM = 1.0 / 16;
+    // the zoom changes by this factor per button press or wheel step
+    private static final double ZOOM_STEP = 1.5;
     
     private Tooltip dataTooltip = new Tooltip();
     private boolean tooltipVisible = false;
     private boolean tooltipLocked = false;
-    private Map<String, DataPoint> dataPointCache = new HashMap<>();
-    private String lockedPositionKey = null;
+    // the square of the shown frame drawn at each packed screen position
+    private LongIntHashMap dataPointCache = new LongIntHashMap();
+    private long lockedPositionKey = NO_KEY;
+    private long hoveredPositionKey = NO_KEY;
+    // the dataset row of the cell under the mouse in a block of a coarse level, or -1
+    private int hoveredCellRow = -1;
+    private MapFrame shownFrame;
+    
+    // marks "no position" where a position key is expected
+    private static final long NO_KEY = Long.MIN_VALUE;
+    
+    // each data point is drawn as a square this part of its block wide, shifted up and
+    // left by a part of its width; at the default map width a 1 km cell is 15 pixels wide
+    private static final double SQUARE_FILL = 0.8;
+    private static final double SQUARE_OFFSET = 2.0 / 15;
+    // blocks narrower than this, in pixels, are averaged into the next coarser level
+    private static final double MIN_BLOCK_PIXELS = 8;
+    
+    // tile pyramids of recently shown datasets; only used on the loader thread
+    private LinkedHashMap<DataSet, TilePyramid> pyramids = new LinkedHashMap<>(8, 0.75f, true);
+    private static final int MAX_PYRAMIDS = 4;
+    // the grid of the cells of the last dataset shown on a coarse level, for the
+    // tooltips; only used on the loader thread
+    private DataSet rasterDataSet;
+    private RasterGrid raster;
+    
+    // loads run one at a time on this thread, away from the JavaFX application thread
+    private ExecutorService loadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "map-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> pendingLoad;
+    // increases with every load request; results of older requests are dropped
+    private volatile long loadGeneration = 0;
+    
+    // rendered frames by selection and canvas size, least recently shown first;
+    // only used on the JavaFX application thread
+    private LinkedHashMap<String, MapFrame> frameCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long frameCacheBytes = 0;
+    // memory budget of the rendered frames
+    private static final long FRAME_CACHE_BUDGET = 64L * 1024 * 1024;
+    
+    // paints the rows of a file while it is loading; only used on the JavaFX application thread
+    private StreamingPreview streamingPreview;
+    private WritableImage previewImage;
+    // the frame whose image is on the canvas as it is, or null while the canvas shows
+    // the rows of a loading file or a stretched overlay
+    private MapFrame canvasFrame;
+    private AnimationTimer previewTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drawPreviewRows();
+        }
+    };
+    
+    // a burst of resize, drag or zoom events only renders once, this long after the last one
+    private PauseTransition renderPause = new PauseTransition(Duration.millis(150));
     
     
 
@@ -49,13 +172,40 @@ public class PollutionMap
      * @param mapView The ImageView showing the london map
      */
     public PollutionMap(ImageView mapView)
+    {
+       this(mapView, new FileLoader());
+    }
+    
+    /**
+     * Create a new PollutionMap that loads its data through the given FileLoader,
+     * so that datasets cached by the loader are shared with other views.
+     * @param mapView The ImageView showing the london map
+     * @param fileLoader The loader for the pollution data files
+     */
+    public PollutionMap(ImageView mapView, FileLoader fileLoader)
+    {
+       this(mapView, fileLoader, new PollutionCube(fileLoader, MAP_AREA));
+    }
+    
+    /**
+     * Create a new PollutionMap that loads its data through the given FileLoader, and
+     * takes the values of every year of a point, for its tooltip and the trend mode,
+     * from the given cube.
+     * @param mapView The ImageView showing the london map
+     * @param fileLoader The loader for the pollution data files
+     * @param cube The values of every year of the cells on the map, filled by the loader
+     */
+    public PollutionMap(ImageView mapView, FileLoader fileLoader, PollutionCube cube)
     {
        this.mapView = mapView;
+       this.fileLoader = fileLoader;
+       this.cube = cube;
        
        double width = mapView.getFitWidth();
        double height = width / mapView.getImage().getWidth() * mapView.getImage().getHeight();
        this.canvas = new Canvas(width, height);
        
+       renderPause.setOnFinished(e -> loadAndShowData());
        setupMouseEvents();
        loadAndShowData();
     }
@@ -66,6 +216,9 @@ public class PollutionMap
           
           canvas.setOnMouseMoved(this::handleMouseMove);
           canvas.setOnMouseClicked(this::handleMouseClick);
+          canvas.setOnMousePressed(this::handleMousePressed);
+          canvas.setOnMouseDragged(this::handleMouseDragged);
+          canvas.setOnScroll(this::handleScroll);
           
           canvas.setOnMouseExited(e -> {
               if (!tooltipLocked) {
@@ -85,14 +238,16 @@ public class PollutionMap
         double mouseX = event.getX();
         double mouseY = event.getY();
         
-        String key = getDataPointKeyAt(mouseX, mouseY);
+        long key = getDataPointKeyAt(mouseX, mouseY);
         
-        if (key != null) {
-            DataPoint point = dataPointCache.get(key);
-            
-            String tooltipText = String.format("%s: %.2f\nLocation: %d, %d", pollutant, point.value(), point.x(), point.y());
-            
-            dataTooltip.setText(tooltipText);
+        if (key != NO_KEY) {
+            int cellRow = getCellRowAt(mouseX, mouseY);
+            if (key != hoveredPositionKey || cellRow != hoveredCellRow) {
+                // only build new text when the mouse moves onto a different square or cell
+                dataTooltip.setText(getTooltipText(key, cellRow));
+                hoveredPositionKey = key;
+                hoveredCellRow = cellRow;
+            }
             
             if (!tooltipVisible) {
                 dataTooltip.show(canvas, event.getScreenX(), event.getScreenY() + 15);
@@ -107,6 +262,8 @@ public class PollutionMap
             if (!tooltipLocked) {
                 hideTooltip();
             }
+            hoveredPositionKey = NO_KEY;
+            hoveredCellRow = -1;
         }
     }
     
@@ -114,44 +271,180 @@ public class PollutionMap
      * Handle mouse clicks to lock/unlock tooltips
      */
     private void handleMouseClick(MouseEvent event) {
+        if (!event.isStillSincePress()) {
+            // the map was dragged
+            return;
+        }
         double mouseX = event.getX();
         double mouseY = event.getY();
         
-        String key = getDataPointKeyAt(mouseX, mouseY);
+        long key = getDataPointKeyAt(mouseX, mouseY);
         
-        if (key == null) {
+        if (key == NO_KEY) {
             if (tooltipLocked) {
                 tooltipLocked = false;
-                lockedPositionKey = null;
+                lockedPositionKey = NO_KEY;
                 hideTooltip();
             }
             return;
         }
-        if (tooltipLocked && key.equals(lockedPositionKey)) {
+        if (tooltipLocked && key == lockedPositionKey) {
             tooltipLocked = false;
-            lockedPositionKey = null;
+            lockedPositionKey = NO_KEY;
             hideTooltip();
             return;
         }
         
         if (tooltipLocked) {
             tooltipLocked = false;
-            lockedPositionKey = null;
+            lockedPositionKey = NO_KEY;
             hideTooltip();
         }
         
         
-        lockTooltip(key, event.getScreenX(), event.getScreenY());
+        lockTooltip(key, getCellRowAt(mouseX, mouseY), event.getScreenX(), event.getScreenY());
         
     }
     
+    /**
+     * Remember where a drag may start
+     */
+    private void handleMousePressed(MouseEvent event) {
+        dragStartX = event.getX();
+        dragStartY = event.getY();
+        dragStartLeft = viewLeft;
+        dragStartBottom = viewBottom;
+    }
+    
+    /**
+     * Move the map with the mouse
+     */
+    private void handleMouseDragged(MouseEvent event) {
+        double metresPerPixelX = viewWidth / canvas.getWidth();
+        double metresPerPixelY = getViewHeight() / canvas.getHeight();
+        setView(dragStartLeft - (event.getX() - dragStartX) * metresPerPixelX,
+                dragStartBottom + (event.getY() - dragStartY) * metresPerPixelY, viewWidth);
+    }
+    
+    /**
+     * Zoom in or out around the mouse position with the mouse wheel
+     */
+    private void handleScroll(ScrollEvent event) {
+        if (event.getDeltaY() != 0) {
+            zoomAt(event.getX(), event.getY(), event.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP);
+        }
+    }
+    
+    /**
+     * Zoom by a factor, keeping the map at the given canvas position in place
+     */
+    private void zoomAt(double x, double y, double factor) {
+        double gridX = viewLeft + x / canvas.getWidth() * viewWidth;
+        double gridY = viewBottom + (canvas.getHeight() - y) / canvas.getHeight() * getViewHeight();
+        double width = viewWidth / factor;
+        double height = width * (topY - bottomY) / (rightX - leftX);
+        setView(gridX - x / canvas.getWidth() * width,
+                gridY - (canvas.getHeight() - y) / canvas.getHeight() * height, width);
+    }
+    
+    /**
+     * Show another part of the map. The view is kept between the smallest and the
+     * largest zoom; zoomed in it stays inside the map, and zoomed out the map stays
+     * inside it. The background moves straight away, the overlay is rendered again
+     * once the view stops changing.
+     */
+    private void setView(double left, double bottom, double width) {
+        double fullWidth = rightX - leftX;
+        viewWidth = clampViewWidth(width);
+        viewLeft = Math.max(Math.min(leftX, rightX - viewWidth), Math.min(left, Math.max(leftX, rightX - viewWidth)));
+        viewBottom = Math.max(Math.min(bottomY, topY - getViewHeight()), Math.min(bottom, Math.max(bottomY, topY - getViewHeight())));
+        
+        if (viewWidth <= fullWidth) {
+            double scaleX = mapView.getImage().getWidth() / fullWidth;
+            double scaleY = mapView.getImage().getHeight() / (topY - bottomY);
+            mapView.setViewport(new Rectangle2D((viewLeft - leftX) * scaleX, (topY - viewBottom - getViewHeight()) * scaleY,
+                                                viewWidth * scaleX, getViewHeight() * scaleY));
+            mapView.setScaleX(1);
+            mapView.setScaleY(1);
+            mapView.setTranslateX(0);
+            mapView.setTranslateY(0);
+        }
+        else {
+            // the whole map, shrunk around its centre and moved to where it is in the view
+            mapView.setViewport(null);
+            mapView.setScaleX(fullWidth / viewWidth);
+            mapView.setScaleY(fullWidth / viewWidth);
+            mapView.setTranslateX(((leftX + rightX) / 2.0 - viewLeft) / viewWidth * canvas.getWidth() - canvas.getWidth() / 2);
+            mapView.setTranslateY((viewBottom + getViewHeight() - (bottomY + topY) / 2.0) / getViewHeight() * canvas.getHeight() 
+                                  - canvas.getHeight() / 2);
+        }
+        
+        tooltipLocked = false;
+        lockedPositionKey = NO_KEY;
+        hideTooltip();
+        showPreview();
+    }
+    
+    /**
+     * Return the nearest view width, in grid coordinates, between the largest and the
+     * smallest zoom.
+     */
+    static double clampViewWidth(double width) {
+        double fullWidth = MAP_AREA.getMaxX() - MAP_AREA.getMinX();
+        return Math.max(fullWidth / MAX_ZOOM, Math.min(width, fullWidth / MIN_ZOOM));
+    }
+    
+    /**
+     * Return the area whose data is loaded for a view of the given width, in grid
+     * coordinates: the map area while the view is inside it, or null, for the whole
+     * file, once the view is wider than the map.
+     */
+    static BoundingBox getLoadArea(double viewWidth) {
+        return viewWidth <= MAP_AREA.getMaxX() - MAP_AREA.getMinX() ? MAP_AREA : null;
+    }
+    
+    /**
+     * Return the tile pyramid level drawn on a canvas of the given width, in pixels,
+     * that shows a view of the given width, in grid coordinates.
+     */
+    static int getTileLevel(int canvasWidth, double viewWidth) {
+        return TilePyramid.levelFor(canvasWidth / viewWidth, MIN_BLOCK_PIXELS);
+    }
+    
+    /**
+     * Return the height of the shown part of the map, in grid coordinates
+     */
+    private double getViewHeight() {
+        return viewWidth * (topY - bottomY) / (rightX - leftX);
+    }
+    
+    /**
+     * Stretch the shown overlay to where its part of the map now is on the canvas,
+     * and render it again once the changes stop
+     */
+    private void showPreview() {
+        stopPreview();
+        if (shownFrame != null) {
+            double scaleX = canvas.getWidth() / viewWidth;
+            double scaleY = canvas.getHeight() / getViewHeight();
+            GraphicsContext gc = canvas.getGraphicsContext2D();
+            gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+            gc.drawImage(shownFrame.image, (shownFrame.viewLeft - viewLeft) * scaleX,
+                         canvas.getHeight() - (shownFrame.viewBottom + shownFrame.viewHeight - viewBottom) * scaleY,
+                         shownFrame.viewWidth * scaleX, shownFrame.viewHeight * scaleY);
+        }
+        canvasFrame = shownFrame != null && shownFrame.shows(viewLeft, viewBottom, viewWidth, canvas.getWidth(), canvas.getHeight()) 
+                      ? shownFrame : null;
+        renderPause.playFromStart();
+    }
+    
     /**
      * Lock tooltip to position
      */
-    private void lockTooltip(String key, double screenX, double screenY) {
-        DataPoint point = dataPointCache.get(key);
-        String tooltipText = String.format("%s: %.2f\nLocation: %d, %d", pollutant, point.value(), point.x(), point.y());
-        dataTooltip.setText(tooltipText);
+    private void lockTooltip(long key, int cellRow, double screenX, double screenY) {
+        dataTooltip.setText(getTooltipText(key, cellRow));
+        hoveredPositionKey = key;
+        hoveredCellRow = cellRow;
         
         if (tooltipVisible) {
             dataTooltip.hide();
@@ -174,53 +467,101 @@ public class PollutionMap
     }
     
     /**
-     * Generate a key for a position on the canvas
+     * Build the tooltip text for the data point drawn at a position key
+     * @param cellRow The dataset row of the cell under the mouse, shown for a block of
+     *                a coarse level, or -1
      */
-    private String getPositionKey(double x, double y) {
-        return (int)x + "," + (int)y;
+    private String getTooltipText(long key, int cellRow) {
+        int square = dataPointCache.get(key);
+        TilePyramid.Tile tile = shownFrame.tiles[square];
+        int block = shownFrame.blocks[square];
+        if (tile == null) {
+            // a square of the trend mode, whose block is its cell in the cube
+            CellTrends trends = shownFrame.trends;
+            int pollutantIndex = PollutionCube.pollutantIndex(shownFrame.pollutant);
+            return String.format("%s trend: %+.2f µg/m³ per year (R² %.2f, %d years)\nLocation: %d, %d", shownFrame.pollutant,
+                                 trends.getSlope(block, pollutantIndex), trends.getRSquared(block, pollutantIndex),
+                                 trends.getYearCount(block, pollutantIndex), cube.getX(block), cube.getY(block))
+                   + getSeriesText(cube.getGridCode(block), shownFrame.pollutant);
+        }
+        String text = String.format("%s: %.2f\nLocation: %d, %d", shownFrame.pollutant, tile.getValue(block), tile.getX(block), tile.getY(block));
+        if (tile.getLevel() > 0) {
+            text += String.format("\nAverage of %d cells in a %d km block", tile.getCellCount(block), 
+                                  TilePyramid.getBlockSize(tile.getLevel()) / TilePyramid.CELL_SIZE);
+            if (cellRow >= 0) {
+                DataSet dataSet = shownFrame.dataSet;
+                double value = dataSet.getValue(cellRow);
+                text += String.format("\nCell %d, %d: %s", dataSet.getX(cellRow), dataSet.getY(cellRow), 
+                                      value >= 0 ? String.format("%.2f", value) : "no data")
+                        + getSeriesText(dataSet.getGridCode(cellRow), shownFrame.pollutant);
+            }
+        }
+        else {
+            text += getSeriesText(shownFrame.dataSet.getGridCode(tile.getRow(block)), shownFrame.pollutant);
+        }
+        return text;
+    }
+    
+    /**
+     * Return a line with the values of every year of a grid code, or an empty string
+     * if the cube has none.
+     */
+    private String getSeriesText(int gridCode, String pollutant) {
+        double[] series = cube.getSeries(gridCode, pollutant);
+        if (series == null) {
+            return "";
+        }
+        String text = "\n" + FileLoader.YEARS.get(0) + "-" + FileLoader.YEARS.get(series.length - 1) + ":";
+        for (double value : series) {
+            text += Double.isNaN(value) ? " -" : String.format(" %.1f", value);
+        }
+        return text;
+    }
+    
+    /**
+     * Return the dataset row of the 1 km cell at a position on the canvas, looked up in
+     * the grid of the shown frame, or -1 if there is no row there or the frame has no
+     * grid. Only frames of the coarse levels have one.
+     */
+    private int getCellRowAt(double x, double y) {
+        if (shownFrame == null || shownFrame.raster == null) {
+            return -1;
+        }
+        double gridX = viewLeft + x / canvas.getWidth() * viewWidth;
+        double gridY = viewBottom + (canvas.getHeight() - y) / canvas.getHeight() * getViewHeight();
+        return shownFrame.raster.dataRowAt((int)Math.floor(gridX), (int)Math.floor(gridY));
+    }
+    
+    /**
+     * Generate a key for a position on the canvas. The whole pixel x and y positions
+     * are packed into one long.
+     */
+    private long getPositionKey(double x, double y) {
+        return LongIntHashMap.pack((int)x, (int)y);
     }
     
     /**
      * Check if point (x,y) is within drawn data point
      */
     private boolean isWithinDataPoint(double x, double y) {
-        for (Map.Entry<String, DataPoint> entry : dataPointCache.entrySet()) {
-            String[] coords = entry.getKey().split(",");
-            int dpX = Integer.parseInt(coords[0]);
-            int dpY = Integer.parseInt(coords[1]);
-            
-            if (x >= dpX-2 && x <= dpX-2+15 && y >= dpY -2 && y <= dpY-2+15) {
-                return true;
-            }
-        }
-        return false;
+        return getDataPointKeyAt(x, y) != NO_KEY;
     }
     
     /**
      * Get the closest data point key to the given coordinates
+     * 
+     * The lookup goes through the spatial index of the frame on screen, so only the
+     * squares near the position are checked.
+     * 
+     * @return The position key, or NO_KEY if there is no data point at the position
      */
-    private String getDataPointKeyAt(double x, double y) {
-        String closestKey = null;
-        double minDistance = Double.MAX_VALUE;
-        
-        for (Map.Entry<String, DataPoint> entry : dataPointCache.entrySet()) {
-            String[] coords = entry.getKey().split(",");
-            int dpX = Integer.parseInt(coords[0]);
-            int dpY = Integer.parseInt(coords[1]);
-            
-            int centerX = dpX-2 + 7;
-            int centerY = dpY-2 + 7;
-            
-            if (x >= dpX-2 && x <= dpX-2+15 && y >= dpY-2 && y <= dpY-2+15) {
-                double distance = Math.sqrt(Math.pow(centerX - x, 2) + Math.pow(centerY - y, 2));
-                if (distance < minDistance) {
-                    minDistance = distance;
-                    closestKey = entry.getKey();
-                }
-            }
+    private long getDataPointKeyAt(double x, double y) {
+        if (shownFrame == null || streamingPreview != null || !shownFrame.shows(viewLeft, viewBottom, viewWidth, canvas.getWidth(), canvas.getHeight())) {
+            // the overlay is only stretched to the current view until it is rendered again
+            return NO_KEY;
         }
-        
-        return closestKey;
+        int square = shownFrame.index.find(x, y);
+        return square < 0 ? NO_KEY : shownFrame.keys[square];
     }
     
     /**
@@ -245,7 +586,7 @@ public class PollutionMap
         //Pollutant selection
         Label pollutantLabel = new Label("Select Pollutatnt:");
         ComboBox<String> pollutantComboBox = new ComboBox<>();
-        pollutantComboBox.getItems().addAll("NO2", "PM10", "PM2.5");
+        pollutantComboBox.getItems().addAll(FileLoader.POLLUTANTS);
         pollutantComboBox.setValue(pollutant);
         pollutantComboBox.setOnAction(e -> {
             pollutant = pollutantComboBox.getValue();
@@ -255,28 +596,94 @@ public class PollutionMap
         //Year selection
         Label yearLabel = new Label("Select year:");
         ComboBox<String> yearComboBox = new ComboBox<>();
-        yearComboBox.getItems().addAll("2018", "2019", "2020", "2021", "2022", "2023");
+        yearComboBox.getItems().addAll(FileLoader.YEARS);
         yearComboBox.setValue(year);
         yearComboBox.setOnAction(e -> {
             year = yearComboBox.getValue();
             loadAndShowData();
         });
         
+        //Color scale selection
+        Label schemeLabel = new Label("Color scale:");
+        ComboBox<ColorScale.Scheme> schemeComboBox = new ComboBox<>();
+        schemeComboBox.getItems().addAll(ColorScale.Scheme.values());
+        schemeComboBox.setValue(colorScheme);
+        schemeComboBox.setOnAction(e -> {
+            colorScheme = schemeComboBox.getValue();
+            loadAndShowData();
+        });
+        
+        //Map mode selection
+        Label modeLabel = new Label("Map mode:");
+        ComboBox<MapMode> modeComboBox = new ComboBox<>();
+        modeComboBox.getItems().addAll(MapMode.values());
+        modeComboBox.setValue(mode);
+        modeComboBox.setOnAction(e -> {
+            mode = modeComboBox.getValue();
+            // the trend covers all years and has its own colours
+            yearComboBox.setDisable(mode == MapMode.TREND);
+            schemeComboBox.setDisable(mode == MapMode.TREND);
+            loadAndShowData();
+        });
+        
+        //Zoom
+        Label zoomLabel = new Label("Zoom (or use the mouse wheel, drag to move):");
+        Button zoomInButton = new Button("+");
+        zoomInButton.setOnAction(e -> zoomAt(canvas.getWidth() / 2, canvas.getHeight() / 2, ZOOM_STEP));
+        Button zoomOutButton = new Button("-");
+        zoomOutButton.setOnAction(e -> zoomAt(canvas.getWidth() / 2, canvas.getHeight() / 2, 1 / ZOOM_STEP));
+        Button resetButton = new Button("Whole map");
+        resetButton.setOnAction(e -> setView(leftX, bottomY, rightX - leftX));
+        HBox zoomBox = new HBox(5, zoomInButton, zoomOutButton, resetButton);
+        
         Label legendLabel = new Label("Color Legend:");
         
-        HBox legendBox = new HBox(10);
-        legendBox.getChildren().addAll(
-        createColorBox(Color.GREEN, "Low"),
-        createColorBox(Color.YELLOW, "Medium"),
-        createColorBox(Color.ORANGE, "High"),
-        createColorBox(Color.RED, "Very High"));
+        legendBox = new HBox(10);
+        updateLegend();
         
-        panel.getChildren().addAll(titleLabel, pollutantLabel, pollutantComboBox, yearLabel, yearComboBox, legendLabel, legendBox);
+        panel.getChildren().addAll(titleLabel, pollutantLabel, pollutantComboBox, modeLabel, modeComboBox, yearLabel, yearComboBox, 
+                                   schemeLabel, schemeComboBox, zoomLabel, zoomBox, legendLabel, legendBox);
         
         return panel;
     }
     
     
+    /**
+     * Fill the legend from the colour scale of the current pollutant and scheme, so
+     * it always shows the colours and thresholds that are drawn
+     */
+    private void updateLegend() {
+        if (legendBox == null) {
+            return;
+        }
+        ColorScale scale = ColorScale.forPollutant(pollutant, colorScheme);
+        legendBox.getChildren().clear();
+        
+        if (mode == MapMode.TREND) {
+            TrendColorScale trendScale = TrendColorScale.forPollutant(pollutant);
+            Label minLabel = new Label(String.format("%+.1f", -trendScale.getLimit()));
+            minLabel.setStyle("-fx-font-size: 10px;");
+            Label maxLabel = new Label(String.format("%+.1f µg/m³ per year", trendScale.getLimit()));
+            maxLabel.setStyle("-fx-font-size: 10px;");
+            legendBox.getChildren().addAll(minLabel, new ImageView(trendScale.createLegendImage(150, 15)), maxLabel);
+        }
+        else if (colorScheme == ColorScale.Scheme.BANDS) {
+            for (int band = 0; band < ColorScale.BANDS; band++) {
+                String range = band < ColorScale.BANDS - 1 
+                    ? String.format("< %.0f", scale.getBandStart(band + 1))
+                    : String.format("%.0f+", scale.getBandStart(band));
+                legendBox.getChildren().add(createColorBox(scale.getLegendColor(band), scale.getBandName(band) + " (" + range + ")"));
+            }
+        }
+        else {
+            Label minLabel = new Label("0");
+            minLabel.setStyle("-fx-font-size: 10px;");
+            Label maxLabel = new Label(String.format("%.0f+", scale.getMaximum()));
+            maxLabel.setStyle("-fx-font-size: 10px;");
+            legendBox.getChildren().addAll(minLabel, new ImageView(scale.createLegendImage(150, 15)), maxLabel);
+        }
+    }
+    
     /**
      * Create a colored box with label for the legend
      */
@@ -303,97 +710,344 @@ public class PollutionMap
     
     /**
      * Load data from file and show on canvas
+     * 
+     * The file is loaded and the overlay is rendered into an image on a background
+     * thread; only drawing that image happens on the JavaFX application thread. If the selection
+     * changes again before a load has finished, that load is cancelled or its result
+     * is dropped, so only the latest selection is ever shown.
      */
     public void loadAndShowData() {
-        dataPointCache.clear();
         resizeCanvas();
         
+        updateLegend();
         
-        DataSet dataSet = fileLoader.loadPollutionData(pollutant, year);
-        if (dataSet == null) {
-            return;
+        MapMode requestedMode = mode;
+        String requestedYear = year;
+        ColorScale scale = ColorScale.forPollutant(pollutant, colorScheme);
+        MapFrame frame = new MapFrame(pollutant, canvas.getWidth(), canvas.getHeight(), 
+                                      viewLeft, viewBottom, viewWidth, getViewHeight());
+        MapFrame previous = shownFrame;
+        long generation = ++loadGeneration;
+        
+        if (pendingLoad != null) {
+            // a load that has not started yet is simply dropped from the queue
+            pendingLoad.cancel(false);
         }
         
-        GraphicsContext gc = canvas.getGraphicsContext2D();
+        String cacheKey = requestedMode == MapMode.TREND ? getFrameCacheKey(frame, "trend", null)
+                          : getFrameCacheKey(frame, requestedYear, colorScheme);
+        MapFrame cached = frameCache.get(cacheKey);
+        if (cached != null) {
+            showFrame(cached, generation);
+            return;
+        }
         
-        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        pendingLoad = loadExecutor.submit(() -> {
+            if (generation != loadGeneration) {
+                return;
+            }
+            StreamingPreview preview = null;
+            if (requestedMode == MapMode.VALUES && !fileLoader.isCached(frame.pollutant, requestedYear, getLoadArea(frame.viewWidth))) {
+                // the file has to be read: show its rows as they come in
+                preview = new StreamingPreview(frame, scale, generation);
+                StreamingPreview started = preview;
+                Platform.runLater(() -> startPreview(started));
+            }
+            boolean prepared = requestedMode == MapMode.TREND ? prepareTrendFrame(frame, previous, generation)
+                               : prepareFrame(frame, requestedYear, scale, previous, preview, generation);
+            if (!prepared) {
+                Platform.runLater(this::stopPreview);
+                return;
+            }
+            Platform.runLater(() -> {
+                putCachedFrame(cacheKey, frame);
+                showFrame(frame, generation);
+                // the changed squares are only of use while the previous frame is shown
+                frame.previous = null;
+                frame.changed = null;
+            });
+        });
+    }
+    
+    /**
+     * Return the key of a rendered frame in the cache. The size is rounded to whole
+     * pixels, as the overlay image is, and the view to whole metres.
+     * @param scheme The colour scheme, or null for frames that do not use one
+     */
+    private static String getFrameCacheKey(MapFrame frame, String year, ColorScale.Scheme scheme) {
+        return frame.pollutant + "/" + year + "/" + (scheme == null ? "-" : scheme.name()) + "/" + frame.width + "x" + frame.height 
+               + "/" + Math.round(frame.viewLeft) + "," + Math.round(frame.viewBottom) + "," + Math.round(frame.viewWidth);
+    }
+    
+    /**
+     * Add a rendered frame to the cache, dropping the least recently shown frames
+     * until it fits in the budget. A frame larger than the whole budget is not cached.
+     */
+    private void putCachedFrame(String key, MapFrame frame) {
+        long bytes = frame.estimateMemoryBytes();
+        if (bytes > FRAME_CACHE_BUDGET) {
+            return;
+        }
         
-        List<DataPoint> points = dataSet.getData();
+        MapFrame previous = frameCache.put(key, frame);
+        if (previous != null) {
+            frameCacheBytes -= previous.estimateMemoryBytes();
+        }
+        frameCacheBytes += bytes;
         
-        for (DataPoint point : points) {
-            if (!isInMap(point.x(), point.y())) {
+        Iterator<MapFrame> oldest = frameCache.values().iterator();
+        while (frameCacheBytes > FRAME_CACHE_BUDGET && oldest.hasNext()) {
+            MapFrame evicted = oldest.next();
+            if (evicted == frame) {
                 continue;
             }
-            if (point.value() < 0) {
-                continue;
+            oldest.remove();
+            frameCacheBytes -= evicted.estimateMemoryBytes();
+        }
+    }
+    
+    /**
+     * Load the dataset and render the overlay of the frame's view into an image. Runs
+     * on the background thread.
+     * 
+     * The blocks come from the tiles of the dataset's tile pyramid that are in view,
+     * on the finest level whose blocks are still large enough to see, so the work
+     * depends on the size of the view rather than of the dataset. A view wider than
+     * the map loads the data of the whole file, so the blocks around London have data.
+     * 
+     * If the squares are in the same places as in the previous frame, which is usual
+     * when only the year changes, the previous image is copied and only the squares
+     * whose colour changed are drawn again.
+     * 
+     * @param previous The frame shown when the load was requested, or null
+     * @param preview The preview to tell about the rows while the file is read, or null
+     * @return False if there is no data or a newer load was requested in the meantime
+     */
+    private boolean prepareFrame(MapFrame frame, String year, ColorScale scale, MapFrame previous, 
+                                 StreamingPreview preview, long generation) {
+        DataSet dataSet = fileLoader.loadPollutionData(frame.pollutant, year, getLoadArea(frame.viewWidth), preview);
+        if (dataSet == null || generation != loadGeneration) {
+            return false;
+        }
+        
+        frame.dataSet = dataSet;
+        TilePyramid pyramid = getPyramid(dataSet);
+        int level = getTileLevel(frame.width, frame.viewWidth);
+        int blockSize = TilePyramid.getBlockSize(level);
+        frame.squareSize = frame.getSquareSize(blockSize);
+        frame.squareOffset = MapFrame.getSquareOffset(frame.squareSize);
+        if (level > 0) {
+            // the tooltip of a block also shows the cell under the mouse
+            frame.raster = getRaster(dataSet);
+        }
+        
+        List<TilePyramid.Tile> tiles = pyramid.getTiles(level, frame.viewLeft - blockSize, frame.viewBottom - blockSize,
+                                                        frame.viewLeft + frame.viewWidth + blockSize, 
+                                                        frame.viewBottom + frame.viewHeight + blockSize);
+        for (TilePyramid.Tile tile : tiles) {
+            for (int block = 0; block < tile.size(); block++) {
+                double screenX = frame.toScreenX(tile.getX(block));
+                double screenY = frame.toScreenY(tile.getY(block));
+                
+                addSquare(frame, screenX, screenY, scale.colorFor(tile.getValue(block)), tile, block);
             }
-             
-             
-            double[] pos = gridToScreen(point.x(), point.y());
-            double screenX = pos[0];
-            double screenY = pos[1];
-            
-            Color color = getColorForValue(point.value());
-            
-            gc.setFill(color);
-            gc.fillRect(screenX-2, screenY-2, 15, 15);
-            
-            String posKey = getPositionKey(screenX, screenY);
-            dataPointCache.put(posKey, point);
         }
         
+        renderFrame(frame, previous);
+        return true;
+    }
+    
+    /**
+     * Load every year of the frame's pollutant into the cube, and render the trend
+     * of each cell in the frame's view into an image. The trends are worked out by
+     * the cube, which keeps them until new data is added. The cube only holds the
+     * cells of the map area, so zoomed out the trend is shown for London alone. Runs
+     * on the background thread.
+     * 
+     * @param previous The frame shown when the load was requested, or null
+     * @return False if there is no data or a newer load was requested in the meantime
+     */
+    private boolean prepareTrendFrame(MapFrame frame, MapFrame previous, long generation) {
+        for (String loadYear : FileLoader.YEARS) {
+            // the cube is given the data of each file the loader reads for the map
+            fileLoader.loadPollutionData(frame.pollutant, loadYear, MAP_AREA);
+            if (generation != loadGeneration) {
+                return false;
+            }
+        }
         
+        CellTrends trends = cube.getTrends();
+        if (trends.getCellCount() == 0) {
+            return false;
+        }
+        TrendColorScale scale = TrendColorScale.forPollutant(frame.pollutant);
+        int pollutantIndex = PollutionCube.pollutantIndex(frame.pollutant);
+        frame.trends = trends;
+        frame.squareSize = frame.getSquareSize(TilePyramid.CELL_SIZE);
+        frame.squareOffset = MapFrame.getSquareOffset(frame.squareSize);
+        for (int cell = 0; cell < trends.getCellCount(); cell++) {
+            double slope = trends.getSlope(cell, pollutantIndex);
+            if (!Double.isNaN(slope)) {
+                addSquare(frame, frame.toScreenX(cube.getX(cell)), frame.toScreenY(cube.getY(cell)), 
+                          scale.colorFor(slope), null, cell);
+            }
+        }
+        
+        renderFrame(frame, previous);
+        return true;
     }
     
     /**
-     * Check if point is in map boundaries
+     * Add the square of a point to a frame, unless it is entirely outside the view.
      */
-    private boolean isInMap(int x, int y) {
-        return x >= leftX && x <= rightX && y >= bottomY && y <= topY;
+    private void addSquare(MapFrame frame, double screenX, double screenY, int color, TilePyramid.Tile tile, int block) {
+        int left = (int)screenX - frame.squareOffset;
+        int top = (int)screenY - frame.squareOffset;
+        if (left + frame.squareSize <= 0 || left >= frame.width || top + frame.squareSize <= 0 || top >= frame.height) {
+            return;
+        }
+        
+        long posKey = getPositionKey(screenX, screenY);
+        frame.add(screenX, screenY, posKey, color, tile, block);
+        frame.points.put(posKey, frame.count - 1);
     }
     
     /**
-     * Convert grid coordinates to screen position
+     * Render the squares of a frame into its image. If the squares are in the same
+     * places as in the previous frame, the previous image is copied and only the
+     * squares whose colour changed are drawn again.
      */
-    private double[] gridToScreen(int x, int y) {
-        double screenX = (x - leftX) * canvas.getWidth() / (rightX - leftX);
-        double screenY = canvas.getHeight() - (y - bottomY) * canvas.getHeight() / (topY - bottomY);
-        return new double [] {screenX, screenY};
+    private void renderFrame(MapFrame frame, MapFrame previous) {
+        OverlayRenderer renderer;
+        if (frame.hasSameSquaresAs(previous)) {
+            frame.index = previous.index;
+            frame.drawFrom(previous);
+            renderer = new OverlayRenderer(frame.width, frame.height, previous.pixels);
+            renderer.repaintSquares(frame.left, frame.top, frame.colors, frame.squareSize, frame.index, 
+                                    frame.changed, frame.changed.length);
+        }
+        else {
+            frame.index = new ScreenGridIndex(frame.left, frame.top, frame.count, frame.squareSize, frame.width, frame.height);
+            renderer = new OverlayRenderer(frame.width, frame.height);
+            for (int i = 0; i < frame.count; i++) {
+                renderer.fillSquare(frame.left[i], frame.top[i], frame.squareSize, frame.colors[i]);
+            }
+        }
+        frame.pixels = renderer.getPixels();
+        frame.image = renderer.toImage();
     }
     
-    private Color getColorForValue(double value) {
-        double low, medium, high;
-        
-        if (pollutant.equals("PM10")) {
-            low = 15;
-            medium = 30;
-            high = 45;
+    /**
+     * Return the tile pyramid of a dataset, creating it the first time. Only the
+     * pyramids of the most recently shown datasets are kept. Runs on the background
+     * thread.
+     */
+    private TilePyramid getPyramid(DataSet dataSet) {
+        TilePyramid pyramid = pyramids.get(dataSet);
+        if (pyramid == null) {
+            pyramid = new TilePyramid(dataSet);
+            pyramids.put(dataSet, pyramid);
+            Iterator<TilePyramid> oldest = pyramids.values().iterator();
+            while (pyramids.size() > MAX_PYRAMIDS) {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        return pyramid;
+    }
+    
+    /**
+     * Return the grid of the cells of a dataset, creating it if it is not the grid of
+     * the dataset asked for last time. Runs on the background thread.
+     */
+    private RasterGrid getRaster(DataSet dataSet) {
+        if (rasterDataSet != dataSet) {
+            raster = dataSet.toRaster();
+            rasterDataSet = dataSet;
         }
-        else if (pollutant.equals("PM2.5")) {
-            low = 10;
-            medium = 20;
-            high = 30;
+        return raster;
+    }
+    
+    /**
+     * Show a rendered frame on the canvas, unless a newer load was requested after
+     * the one it belongs to. Runs on the JavaFX application thread.
+     */
+    private void showFrame(MapFrame frame, long generation) {
+        if (generation != loadGeneration) {
+            return;
+        }
+        
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        
+        boolean inView = frame.shows(viewLeft, viewBottom, viewWidth, canvas.getWidth(), canvas.getHeight());
+        stopPreview();
+        if (inView && frame.canBeDrawnOver(canvasFrame)) {
+            // the canvas shows the previous frame; copy only the changed squares over it
+            for (int i : frame.changed) {
+                int left = Math.max(frame.left[i], 0);
+                int top = Math.max(frame.top[i], 0);
+                int right = Math.min(frame.left[i] + frame.squareSize, frame.width);
+                int bottom = Math.min(frame.top[i] + frame.squareSize, frame.height);
+                if (right > left && bottom > top) {
+                    gc.clearRect(left, top, right - left, bottom - top);
+                    gc.drawImage(frame.image, left, top, right - left, bottom - top, 
+                                 left, top, right - left, bottom - top);
+                }
+            }
         }
         else {
-            low = 20;
-            medium = 40;
-            high = 60;
+            gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+            gc.drawImage(frame.image, 0, 0);
         }
         
-        if (value < low) {
-            return Color.rgb(0, 255, 0, 0.4);
+        dataPointCache = frame.points;
+        shownFrame = frame;
+        canvasFrame = frame;
+        hoveredPositionKey = NO_KEY;
+        hoveredCellRow = -1;
+    }
+    
+    /**
+     * Start showing the rows of a file that is being loaded, unless a newer load was
+     * requested in the meantime.
+     */
+    private void startPreview(StreamingPreview preview) {
+        if (preview.generation != loadGeneration) {
+            return;
         }
-        else if (value < medium) {
-            return Color.rgb(255, 255, 0, 0.4);
+        if (previewImage == null || (int)previewImage.getWidth() != preview.frame.width 
+            || (int)previewImage.getHeight() != preview.frame.height) {
+            previewImage = new WritableImage(preview.frame.width, preview.frame.height);
         }
-        else if (value < high) {
-            return Color.rgb(255, 165, 0, 0.4);
+        streamingPreview = preview;
+        previewTimer.start();
+    }
+    
+    /**
+     * Copy the rows painted since the last pulse to the canvas. Called on every
+     * pulse while a file is loading.
+     */
+    private void drawPreviewRows() {
+        if (streamingPreview == null || streamingPreview.generation != loadGeneration) {
+            stopPreview();
+            return;
         }
-        else {
-            return Color.rgb(255, 0, 0, 0.4);
+        if (streamingPreview.copyTo(previewImage)) {
+            GraphicsContext gc = canvas.getGraphicsContext2D();
+            gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+            gc.drawImage(previewImage, 0, 0);
+            canvasFrame = null;
         }
     }
-       
+    
+    /**
+     * Stop showing the rows of a loading file.
+     */
+    private void stopPreview() {
+        previewTimer.stop();
+        streamingPreview = null;
+    }
+    
     /**
      * Resize the canvas to match the map
      */
@@ -406,10 +1060,301 @@ public class PollutionMap
     }
     
     /**
-     * Update when the map size changes
+     * The points of one dataset in one view of the map, rendered: the overlay image
+     * and its pixels, the square drawn for each point and its colour, and the tile
+     * block of each square for the tooltips. On the coarse levels the grid of the
+     * dataset's cells is kept as well, to find the cell under the mouse in a block. The squares are indexed by screen
+     * position for the mouse lookups.
+     * A frame of the trend mode has no tiles; the block of each square is its cell
+     * in the cube, and the trends are kept with the frame.
+     */
+    static class MapFrame
+    {
+        private String pollutant;
+        private DataSet dataSet;
+        private CellTrends trends;
+        private int width;
+        private int height;
+        // the part of the map shown, in grid coordinates
+        private double viewLeft;
+        private double viewBottom;
+        private double viewWidth;
+        private double viewHeight;
+        private int squareSize;
+        private int squareOffset;
+        private int count;
+        // the square drawn for each point, as used for hit testing
+        private int[] left;
+        private int[] top;
+        private long[] keys;
+        private int[] colors;
+        private TilePyramid.Tile[] tiles;
+        private int[] blocks;
+        // the cells of the dataset, on the coarse levels only
+        private RasterGrid raster;
+        private LongIntHashMap points;
+        private ScreenGridIndex index;
+        private int[] pixels;
+        private WritableImage image;
+        // the frame this one was drawn from, and the squares that differ from it;
+        // null once the frame has been shown
+        private MapFrame previous;
+        private int[] changed;
+        
+        MapFrame(String pollutant, double width, double height, 
+                 double viewLeft, double viewBottom, double viewWidth, double viewHeight) {
+            this.pollutant = pollutant;
+            this.width = (int)Math.ceil(width);
+            this.height = (int)Math.ceil(height);
+            this.viewLeft = viewLeft;
+            this.viewBottom = viewBottom;
+            this.viewWidth = viewWidth;
+            this.viewHeight = viewHeight;
+            this.left = new int[1024];
+            this.top = new int[1024];
+            this.keys = new long[1024];
+            this.colors = new int[1024];
+            this.tiles = new TilePyramid.Tile[1024];
+            this.blocks = new int[1024];
+            this.points = new LongIntHashMap(1024);
+        }
+        
+        void add(double x, double y, long key, int color, TilePyramid.Tile tile, int block) {
+            if (count == keys.length) {
+                left = Arrays.copyOf(left, count * 2);
+                top = Arrays.copyOf(top, count * 2);
+                keys = Arrays.copyOf(keys, count * 2);
+                colors = Arrays.copyOf(colors, count * 2);
+                tiles = Arrays.copyOf(tiles, count * 2);
+                blocks = Arrays.copyOf(blocks, count * 2);
+            }
+            left[count] = (int)x - squareOffset;
+            top[count] = (int)y - squareOffset;
+            keys[count] = key;
+            colors[count] = color;
+            tiles[count] = tile;
+            blocks[count] = block;
+            count++;
+        }
+        
+        /**
+         * Return the width of the square drawn for a block of the given size, in
+         * metres, at the scale of the frame.
+         */
+        int getSquareSize(int blockSize) {
+            return Math.max(2, (int)Math.round(blockSize * width / viewWidth * SQUARE_FILL));
+        }
+        
+        /**
+         * Return how far a square of the given width is shifted up and left.
+         */
+        static int getSquareOffset(int squareSize) {
+            return (int)Math.round(squareSize * SQUARE_OFFSET);
+        }
+        
+        /**
+         * Convert a grid x coordinate to a screen x position
+         */
+        double toScreenX(double x) {
+            return (x - viewLeft) * width / viewWidth;
+        }
+        
+        /**
+         * Convert a grid y coordinate to a screen y position
+         */
+        double toScreenY(double y) {
+            return height - (y - viewBottom) * height / viewHeight;
+        }
+        
+        /**
+         * Return true if the frame was rendered for the given view and canvas size.
+         */
+        boolean shows(double viewLeft, double viewBottom, double viewWidth, double width, double height) {
+            return this.viewLeft == viewLeft && this.viewBottom == viewBottom && this.viewWidth == viewWidth
+                   && this.width == (int)Math.ceil(width) && this.height == (int)Math.ceil(height);
+        }
+        
+        /**
+         * Return true if the other frame has the same size and the same squares in the
+         * same order, so that only their colours may differ.
+         */
+        boolean hasSameSquaresAs(MapFrame other) {
+            return other != null && other.pixels != null && other.width == width && other.height == height 
+                   && other.squareSize == squareSize && Arrays.equals(keys, 0, count, other.keys, 0, other.count);
+        }
+        
+        /**
+         * Remember that the frame is drawn from the other frame, which has the same
+         * squares, and find the squares whose colour differs from it.
+         */
+        void drawFrom(MapFrame other) {
+            previous = other;
+            changed = findChangedSquares(other);
+        }
+        
+        /**
+         * Return true if the frame can be shown by drawing only its changed squares
+         * over the canvas: the canvas holds the image of the frame it was drawn from,
+         * and only a few squares changed.
+         * 
+         * @param canvasFrame The frame whose image is on the canvas, or null
+         */
+        boolean canBeDrawnOver(MapFrame canvasFrame) {
+            return previous != null && previous == canvasFrame && changed.length < count / 4;
+        }
+        
+        /**
+         * Return the squares whose colour differs from the same square in the other frame.
+         */
+        int[] findChangedSquares(MapFrame other) {
+            int[] found = new int[64];
+            int foundCount = 0;
+            for (int i = 0; i < count; i++) {
+                if (colors[i] != other.colors[i]) {
+                    if (foundCount == found.length) {
+                        found = Arrays.copyOf(found, foundCount * 2);
+                    }
+                    found[foundCount++] = i;
+                }
+            }
+            return Arrays.copyOf(found, foundCount);
+        }
+        
+        /**
+         * Return a rough estimate of the memory used by the frame, in bytes: the image
+         * pixels, the squares and the lookup tables. The tiles are shared with the
+         * tile pyramid, and the grid with other frames of the dataset, so they are not
+         * counted.
+         */
+        long estimateMemoryBytes() {
+            long bytes = 256 + (long)keys.length * (4 + 4 + 8 + 4 + 8 + 4) + (long)points.size() * 2 * (8 + 4);
+            // the pixel buffer and the image
+            bytes += (long)width * height * 4 * 2;
+            // the index lists each square in up to four buckets
+            bytes += (long)count * 4 * 4;
+            return bytes;
+        }
+    }
+    
+    /**
+     * Paints the rows of a file while it is being loaded, on the same tile level as
+     * the finished frame, so that the map fills in before the file has been read
+     * completely. On level 0 each row is painted as its 1 km cell; on coarser levels
+     * the valid values of each block are added up as the rows come in, and the block
+     * is painted again with their average. The squares of the blocks of one level do
+     * not overlap, so a block can be cleared and painted again on its own. The rows
+     * are painted on the loading thread; the pixels are copied to the screen on the
+     * next pulse. The finished frame is rendered from the complete dataset as usual,
+     * and replaces the preview.
+     */
+    private class StreamingPreview implements DataLoadListener
+    {
+        private MapFrame frame;
+        private ColorScale scale;
+        private long generation;
+        private OverlayRenderer renderer;
+        private int blockSize;
+        private int squareSize;
+        private int squareOffset;
+        // the blocks of a coarse level painted so far, by packed column and row, and
+        // the sum and count of their valid values
+        private LongIntHashMap blocks = new LongIntHashMap();
+        private double[] sums = new double[1024];
+        private int[] counts = new int[1024];
+        // true if rows were painted since the last copy
+        private boolean changed;
+        
+        StreamingPreview(MapFrame frame, ColorScale scale, long generation) {
+            this.frame = frame;
+            this.scale = scale;
+            this.generation = generation;
+            this.renderer = new OverlayRenderer(frame.width, frame.height);
+            this.blockSize = TilePyramid.getBlockSize(getTileLevel(frame.width, frame.viewWidth));
+            this.squareSize = frame.getSquareSize(blockSize);
+            this.squareOffset = MapFrame.getSquareOffset(squareSize);
+        }
+        
+        @Override
+        public void rowsLoaded(DataSet dataSet, int from, int to) {
+            if (generation != loadGeneration) {
+                return;
+            }
+            synchronized (this) {
+                for (int i = from; i < to; i++) {
+                    double value = dataSet.getValue(i);
+                    if (value < 0) {
+                        continue;
+                    }
+                    if (blockSize == TilePyramid.CELL_SIZE) {
+                        // squares outside the view are clipped away by the renderer
+                        renderer.fillSquare(getSquareLeft(dataSet.getX(i)), getSquareTop(dataSet.getY(i)),
+                                            squareSize, scale.colorFor(value));
+                    }
+                    else {
+                        addToBlock(Math.floorDiv(dataSet.getX(i), blockSize), Math.floorDiv(dataSet.getY(i), blockSize), value);
+                    }
+                }
+                changed = true;
+            }
+        }
+        
+        /**
+         * Add a value to a block of a coarse level and paint the block with the new
+         * average. The blocks of every level line up with multiples of their size, as
+         * in the tile pyramid.
+         */
+        private void addToBlock(int column, int row, double value) {
+            long key = LongIntHashMap.pack(column, row);
+            int block = blocks.get(key);
+            if (block == -1) {
+                block = blocks.size();
+                if (block == sums.length) {
+                    sums = Arrays.copyOf(sums, block * 2);
+                    counts = Arrays.copyOf(counts, block * 2);
+                }
+                blocks.put(key, block);
+            }
+            sums[block] += value;
+            counts[block]++;
+            
+            int left = getSquareLeft(column * blockSize + blockSize / 2);
+            int top = getSquareTop(row * blockSize + blockSize / 2);
+            renderer.clearRect(left, top, left + squareSize, top + squareSize);
+            renderer.fillSquare(left, top, squareSize, scale.colorFor(sums[block] / counts[block]));
+        }
+        
+        private int getSquareLeft(int x) {
+            return (int)frame.toScreenX(x) - squareOffset;
+        }
+        
+        private int getSquareTop(int y) {
+            return (int)frame.toScreenY(y) - squareOffset;
+        }
+        
+        /**
+         * Copy the painted pixels into the image, if anything was painted since the
+         * last copy.
+         * 
+         * @return True if the image was changed
+         */
+        synchronized boolean copyTo(WritableImage image) {
+            if (!changed) {
+                return false;
+            }
+            image.getPixelWriter().setPixels(0, 0, frame.width, frame.height, 
+                                             PixelFormat.getIntArgbPreInstance(), renderer.getPixels(), 0, frame.width);
+            changed = false;
+            return true;
+        }
+    }
+    
+    /**
+     * Update when the map size changes. Resizing the window sends many of these in
+     * a row, so the overlay is only rendered again once they stop.
      */
     public void updateMapSize() {
         resizeCanvas();
-        loadAndShowData();
+        // a map zoomed out past its edges is placed in canvas pixels
+        setView(viewLeft, viewBottom, viewWidth);
     }
 }
\ No newline at end of file
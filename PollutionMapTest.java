@@ -0,0 +1,62 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class PollutionMapTest {
+
+    private static final double LONDON_WIDTH = BoundingBox.LONDON.getMaxX() - BoundingBox.LONDON.getMinX();
+
+    @Test
+    public void testZoomingOutPastTheMapUsesCoarserLevels() {
+        double widest = PollutionMap.clampViewWidth(Double.MAX_VALUE);
+        assertTrue(widest > LONDON_WIDTH);
+
+        // the whole of London on the default 800 pixel map shows the 1 km cells
+        assertEquals(0, PollutionMap.getTileLevel(800, LONDON_WIDTH));
+        assertTrue(PollutionMap.getTileLevel(800, LONDON_WIDTH * 4) > 0);
+        assertEquals(TilePyramid.LEVELS - 1, PollutionMap.getTileLevel(800, widest));
+    }
+
+    @Test
+    public void testLevelsGetCoarserAsTheViewWidens() {
+        int previous = 0;
+        for (double width = PollutionMap.clampViewWidth(0); width <= PollutionMap.clampViewWidth(Double.MAX_VALUE); width *= 1.5) {
+            int level = PollutionMap.getTileLevel(800, width);
+            assertTrue(level >= previous);
+            previous = level;
+        }
+        assertEquals(LONDON_WIDTH / 16, PollutionMap.clampViewWidth(0), 1e-9);
+    }
+
+    @Test
+    public void testZoomedOutViewsLoadTheWholeFile() {
+        assertEquals(BoundingBox.LONDON, PollutionMap.getLoadArea(PollutionMap.clampViewWidth(0)));
+        assertEquals(BoundingBox.LONDON, PollutionMap.getLoadArea(LONDON_WIDTH));
+        assertNull(PollutionMap.getLoadArea(LONDON_WIDTH * 1.5));
+        assertNull(PollutionMap.getLoadArea(PollutionMap.clampViewWidth(Double.MAX_VALUE)));
+    }
+
+    private static PollutionMap.MapFrame createFrame(int... colors) {
+        PollutionMap.MapFrame frame = new PollutionMap.MapFrame("NO2", 100, 100, 0, 0, 1000, 1000);
+        for (int i = 0; i < colors.length; i++) {
+            frame.add(i * 10, 50, i, colors[i], null, i);
+        }
+        return frame;
+    }
+
+    @Test
+    public void testChangedSquaresAreOnlyDrawnOverTheFrameTheyCameFrom() {
+        PollutionMap.MapFrame shown = createFrame(1, 1, 1, 1, 1, 1, 1, 1);
+        PollutionMap.MapFrame next = createFrame(1, 2, 1, 1, 1, 1, 1, 1);
+        next.drawFrom(shown);
+
+        assertTrue(next.canBeDrawnOver(shown));
+        // the rows of a loading file were painted over the canvas
+        assertFalse(next.canBeDrawnOver(null));
+        assertFalse(next.canBeDrawnOver(createFrame(1, 1, 1, 1, 1, 1, 1, 1)));
+        assertFalse(createFrame(1, 1, 1, 1, 1, 1, 1, 1).canBeDrawnOver(shown));
+
+        PollutionMap.MapFrame recoloured = createFrame(2, 2, 2, 1, 1, 1, 1, 1);
+        recoloured.drawFrom(shown);
+        assertFalse(recoloured.canBeDrawnOver(shown));
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A QuantileSketch estimates the quantiles (such as the median or the 95th percentile)
+ * of a large number of values, without keeping the values.
+ *
+ * Values are counted in buckets whose bounds grow by a fixed factor, so that every
+ * bucket is narrow compared to the values in it. A quantile is answered with the
+ * middle of the bucket that holds it, which is within 1% of the true value. Values
+ * below 0.01 are counted together as 0, and very large values share the last bucket.
+ * Sketches of different data can be merged by adding up their buckets, which gives
+ * the same sketch as adding all the values to one.
+ *
+ * Values below 0 are missing values, and are not counted.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class QuantileSketch
+{
+    /** The largest relative error of a quantile. */
+    public static final double RELATIVE_ACCURACY = 0.01;
+    // smaller values are counted as 0, larger ones in the last bucket
+    private static final double MIN_VALUE = 0.01;
+    private static final double MAX_VALUE = 100000;
+
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    // bucket i holds the values from GAMMA^(i + OFFSET - 1) up to GAMMA^(i + OFFSET)
+    private static final int OFFSET = (int) Math.ceil(Math.log(MIN_VALUE) / LOG_GAMMA);
+    private static final int BUCKETS = (int) Math.ceil(Math.log(MAX_VALUE) / LOG_GAMMA) - OFFSET + 1;
+
+    private int[] counts;
+    private int zeroCount;
+    private long count;
+
+    /**
+     * Create an empty sketch.
+     */
+    public QuantileSketch()
+    {
+        counts = new int[BUCKETS];
+    }
+
+    /**
+     * Add a value. Missing values are ignored.
+     */
+    public void add(double value)
+    {
+        if (!(value >= 0)) {
+            return;
+        }
+        count++;
+        if (value < MIN_VALUE) {
+            zeroCount++;
+        }
+        else {
+            counts[bucketOf(value)]++;
+        }
+    }
+
+    /**
+     * Add the values counted by another sketch to this one.
+     */
+    public void merge(QuantileSketch other)
+    {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        zeroCount += other.zeroCount;
+        count += other.count;
+    }
+
+    /**
+     * Return the number of values added.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Return an estimate of a quantile, or NaN if no values have been added.
+     *
+     * @param quantile  The quantile, from 0 (the lowest value) to 1 (the highest);
+     *                  0.5 is the median
+     */
+    public double getQuantile(double quantile)
+    {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1: " + quantile);
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) (quantile * (count - 1));
+        long seen = zeroCount;
+        if (rank < seen) {
+            return 0;
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                return 2 * Math.pow(GAMMA, i + OFFSET) / (GAMMA + 1);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    /**
+     * Write the sketch to a stream. Only the buckets that hold values are written.
+     */
+    public void write(DataOutput out) throws IOException
+    {
+        int used = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                used++;
+            }
+        }
+        out.writeLong(count);
+        out.writeInt(zeroCount);
+        out.writeInt(used);
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                out.writeShort(i);
+                out.writeInt(counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Read a sketch written by write.
+     */
+    public static QuantileSketch read(DataInput in) throws IOException
+    {
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.count = in.readLong();
+        sketch.zeroCount = in.readInt();
+        int used = in.readInt();
+        for (int i = 0; i < used; i++) {
+            int bucket = in.readShort();
+            if (bucket < 0 || bucket >= BUCKETS) {
+                throw new IOException("invalid sketch bucket " + bucket);
+            }
+            sketch.counts[bucket] = in.readInt();
+        }
+        return sketch;
+    }
+
+    private static int bucketOf(double value)
+    {
+        int bucket = (int) Math.ceil(Math.log(value) / LOG_GAMMA) - OFFSET;
+        return Math.max(0, Math.min(bucket, BUCKETS - 1));
+    }
+}
@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+import java.util.Random;
+
+public class QuantileSketchTest {
+
+    @Test
+    public void testQuantilesAreWithinTheRelativeAccuracy() {
+        Random random = new Random(3);
+        double[] values = new double[20000];
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(random.nextGaussian()) * 20;
+            sketch.add(values[i]);
+        }
+        sketch.add(-1);
+        Arrays.sort(values);
+
+        assertEquals(values.length, sketch.getCount());
+        for (double quantile : new double[] {0, 0.05, 0.25, 0.5, 0.75, 0.95, 1}) {
+            double exact = values[(int) (quantile * (values.length - 1))];
+            assertEquals(exact, sketch.getQuantile(quantile), exact * QuantileSketch.RELATIVE_ACCURACY);
+        }
+    }
+
+    @Test
+    public void testMergedSketchesMatchOneSketch() {
+        QuantileSketch all = new QuantileSketch();
+        QuantileSketch first = new QuantileSketch();
+        QuantileSketch second = new QuantileSketch();
+        for (int i = 0; i < 1000; i++) {
+            double value = i * 0.07;
+            all.add(value);
+            (i % 3 == 0 ? first : second).add(value);
+        }
+        first.merge(second);
+
+        assertEquals(all.getCount(), first.getCount());
+        for (int percent = 0; percent <= 100; percent += 5) {
+            assertEquals(all.getQuantile(percent / 100.0), first.getQuantile(percent / 100.0));
+        }
+        assertTrue(Double.isNaN(new QuantileSketch().getQuantile(0.5)));
+    }
+
+    @Test
+    public void testHistogramCountsValuesReachingALimit() {
+        Histogram histogram = new Histogram(1, 10);
+        for (double value : new double[] {0, 0.5, 3, 4.99, 5, 9.5, 42, -1}) {
+            histogram.add(value);
+        }
+
+        assertEquals(7, histogram.getCount());
+        assertEquals(2, histogram.getCount(0));
+        assertEquals(2, histogram.getCount(9));
+        assertEquals(3, histogram.countAtLeast(5));
+        assertEquals(7, histogram.countAtLeast(0));
+    }
+}
@@ -0,0 +1,274 @@
+import java.util.Arrays;
+
+/**
+ * A RasterGrid holds the values of a dataset in a dense grid of square cells, so that
+ * the value at a position can be found with a little arithmetic instead of a search.
+ *
+ * The data files use the 1 km squares of the national grid, with a row for the centre
+ * of each square. The grid starts at the lower left corner of the cell of the lowest
+ * x and y in the dataset, on a multiple of the cell size, and is just large enough to
+ * hold every row. Cells are stored row by row from the south, in one primitive array;
+ * cells without a row, or whose value is missing, hold NaN. The dataset row of each
+ * cell is kept as well, for its grid code.
+ *
+ * If two rows fall into the same cell, the first one is kept.
+ *
+ * A grid holds the rows the dataset had when the grid was made, and is not changed
+ * by rows added later. It is not kept by the dataset, so its memory belongs to
+ * whoever made it, and is not part of the dataset's estimate in the FileLoader
+ * cache. DataSet.toRaster makes one; the map uses it to find the 1 km cell under the
+ * mouse when it shows the averages of larger blocks.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class RasterGrid
+{
+    /** The default cell size, in metres: the 1 km squares of the data files. */
+    public static final int DEFAULT_CELL_SIZE = 1000;
+
+    private DataSet dataSet;
+    private int originX;
+    private int originY;
+    private int cellSize;
+    private int columns;
+    private int rows;
+    private double[] values;
+    private int[] dataRows;
+
+    /**
+     * Create a grid of 1 km cells from a dataset.
+     */
+    public RasterGrid(DataSet dataSet)
+    {
+        this(dataSet, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Create a grid with the given cell size from a dataset.
+     *
+     * @param cellSize  The width of a cell, in metres
+     */
+    public RasterGrid(DataSet dataSet, int cellSize)
+    {
+        if (cellSize < 1) {
+            throw new IllegalArgumentException("cell size must be at least 1: " + cellSize);
+        }
+        this.dataSet = dataSet;
+        this.cellSize = cellSize;
+
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < dataSet.size(); i++) {
+            minX = Math.min(minX, dataSet.getX(i));
+            minY = Math.min(minY, dataSet.getY(i));
+            maxX = Math.max(maxX, dataSet.getX(i));
+            maxY = Math.max(maxY, dataSet.getY(i));
+        }
+        if (dataSet.size() == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+        originX = Math.floorDiv(minX, cellSize) * cellSize;
+        originY = Math.floorDiv(minY, cellSize) * cellSize;
+        columns = Math.floorDiv(maxX - originX, cellSize) + 1;
+        rows = Math.floorDiv(maxY - originY, cellSize) + 1;
+        if ((long) columns * rows > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("dataset too spread out for a grid of " + cellSize + " m cells");
+        }
+
+        values = new double[columns * rows];
+        dataRows = new int[columns * rows];
+        Arrays.fill(values, Double.NaN);
+        Arrays.fill(dataRows, -1);
+        for (int i = 0; i < dataSet.size(); i++) {
+            int cell = Math.floorDiv(dataSet.getY(i) - originY, cellSize) * columns
+                     + Math.floorDiv(dataSet.getX(i) - originX, cellSize);
+            if (dataRows[cell] == -1) {
+                double value = dataSet.getValue(i);
+                values[cell] = value >= 0 ? value : Double.NaN;
+                dataRows[cell] = i;
+            }
+        }
+    }
+
+    /**
+     * Return the dataset the grid was made from.
+     */
+    public DataSet getDataSet()
+    {
+        return dataSet;
+    }
+
+    /**
+     * Return the x coordinate of the left edge of the grid.
+     */
+    public int getOriginX()
+    {
+        return originX;
+    }
+
+    /**
+     * Return the y coordinate of the bottom edge of the grid.
+     */
+    public int getOriginY()
+    {
+        return originY;
+    }
+
+    public int getCellSize()
+    {
+        return cellSize;
+    }
+
+    public int getColumns()
+    {
+        return columns;
+    }
+
+    public int getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Return the column of the cell that holds an x coordinate. It is outside
+     * 0 .. getColumns() - 1 if the coordinate is outside the grid.
+     */
+    public int columnOf(int x)
+    {
+        return Math.floorDiv(x - originX, cellSize);
+    }
+
+    /**
+     * Return the row of the cell that holds a y coordinate, counted from the south.
+     * It is outside 0 .. getRows() - 1 if the coordinate is outside the grid.
+     */
+    public int rowOf(int y)
+    {
+        return Math.floorDiv(y - originY, cellSize);
+    }
+
+    /**
+     * Return the x coordinate of the centre of a column.
+     */
+    public int getCentreX(int column)
+    {
+        return originX + column * cellSize + cellSize / 2;
+    }
+
+    /**
+     * Return the y coordinate of the centre of a row.
+     */
+    public int getCentreY(int row)
+    {
+        return originY + row * cellSize + cellSize / 2;
+    }
+
+    /**
+     * Return the value of a cell, or NaN if it has no valid value or is outside the
+     * grid.
+     */
+    public double getValue(int column, int row)
+    {
+        if (column < 0 || column >= columns || row < 0 || row >= rows) {
+            return Double.NaN;
+        }
+        return values[row * columns + column];
+    }
+
+    /**
+     * Return the dataset row of a cell, or -1 if it has none or is outside the grid.
+     */
+    public int getDataRow(int column, int row)
+    {
+        if (column < 0 || column >= columns || row < 0 || row >= rows) {
+            return -1;
+        }
+        return dataRows[row * columns + column];
+    }
+
+    /**
+     * Return the value of the cell that holds a position, or NaN if it has no valid
+     * value or the position is outside the grid.
+     *
+     * @param easting  The x coordinate
+     * @param northing  The y coordinate
+     */
+    public double valueAt(int easting, int northing)
+    {
+        return getValue(columnOf(easting), rowOf(northing));
+    }
+
+    /**
+     * Return the dataset row of the cell that holds a position, or -1 if there is
+     * none.
+     */
+    public int dataRowAt(int easting, int northing)
+    {
+        return getDataRow(columnOf(easting), rowOf(northing));
+    }
+
+    /**
+     * Copy the values of the square of cells around a cell into an array, row by row
+     * from the south. Cells without a valid value, or outside the grid, are NaN.
+     *
+     * @param column  The column of the centre cell
+     * @param row  The row of the centre cell
+     * @param radius  The number of cells on each side of the centre cell
+     * @param into  An array of at least (2 * radius + 1)^2 values
+     * @return  The array
+     */
+    public double[] getNeighbourhood(int column, int row, int radius, double[] into)
+    {
+        int width = 2 * radius + 1;
+        if (into.length < width * width) {
+            throw new IllegalArgumentException("array too small for radius " + radius);
+        }
+        int i = 0;
+        for (int r = row - radius; r <= row + radius; r++) {
+            if (r < 0 || r >= rows) {
+                Arrays.fill(into, i, i + width, Double.NaN);
+                i += width;
+                continue;
+            }
+            for (int c = column - radius; c <= column + radius; c++) {
+                into[i++] = c >= 0 && c < columns ? values[r * columns + c] : Double.NaN;
+            }
+        }
+        return into;
+    }
+
+    /**
+     * Return the average of the valid values in the square of cells around the cell
+     * that holds a position, or NaN if none of them has a valid value.
+     *
+     * @param radius  The number of cells on each side of the centre cell
+     */
+    public double neighbourhoodMean(int easting, int northing, int radius)
+    {
+        int column = columnOf(easting);
+        int row = rowOf(northing);
+        double sum = 0;
+        int count = 0;
+        for (int r = Math.max(row - radius, 0); r <= Math.min(row + radius, rows - 1); r++) {
+            for (int c = Math.max(column - radius, 0); c <= Math.min(column + radius, columns - 1); c++) {
+                double value = values[r * columns + c];
+                if (!Double.isNaN(value)) {
+                    sum += value;
+                    count++;
+                }
+            }
+        }
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Return an estimate of the memory used by the grid, in bytes.
+     */
+    public long estimateMemoryBytes()
+    {
+        return 64L + (long) values.length * (Double.BYTES + Integer.BYTES);
+    }
+}
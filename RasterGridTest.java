@@ -0,0 +1,68 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+public class RasterGridTest {
+
+    /**
+     * Create a dataset with a value for most 1 km cells of an area, with the cell
+     * centres at 500 m like the data files, and a missing value in one of them.
+     */
+    private static DataSet createGrid() {
+        DataSet dataSet = new DataSet("NO2", "2023", "annual mean", "µg/m³");
+        for (int row = 0; row < 5; row++) {
+            for (int column = 0; column < 7; column++) {
+                if (row == 2 && column == 3) {
+                    continue;
+                }
+                double value = row == 4 && column == 6 ? -1 : column * 10 + row;
+                dataSet.addData(row * 7 + column, 510500 + column * 1000, 170500 + row * 1000, value);
+            }
+        }
+        return dataSet;
+    }
+
+    @Test
+    public void testValueAtFindsTheCellOfAPosition() {
+        DataSet dataSet = createGrid();
+        RasterGrid grid = new RasterGrid(dataSet);
+
+        assertEquals(510000, grid.getOriginX());
+        assertEquals(170000, grid.getOriginY());
+        assertEquals(7, grid.getColumns());
+        assertEquals(5, grid.getRows());
+        assertEquals(21.0, grid.valueAt(512500, 171500));
+        assertEquals(21.0, grid.valueAt(512000, 171999));
+        assertEquals(dataSet.getGridCode(grid.dataRowAt(512500, 171500)), 1 * 7 + 2);
+        // no row, a missing value, and outside the grid
+        assertTrue(Double.isNaN(grid.valueAt(513500, 172500)));
+        assertEquals(-1, grid.dataRowAt(513500, 172500));
+        assertTrue(Double.isNaN(grid.valueAt(516500, 174500)));
+        assertTrue(Double.isNaN(grid.valueAt(509999, 170500)));
+    }
+
+    @Test
+    public void testNeighbourhoodIncludesCellsAroundTheCentre() {
+        RasterGrid grid = new RasterGrid(createGrid());
+
+        double[] cells = grid.getNeighbourhood(0, 0, 1, new double[9]);
+        assertTrue(Double.isNaN(cells[0]));
+        assertTrue(Double.isNaN(cells[3]));
+        assertEquals(0.0, cells[4]);
+        assertEquals(10.0, cells[5]);
+        assertEquals(11.0, cells[8]);
+
+        // the eight cells around the empty one
+        assertEquals((21 + 31 + 41 + 22 + 42 + 23 + 33 + 43) / 8.0, grid.neighbourhoodMean(513500, 172500, 1), 1e-9);
+    }
+
+    @Test
+    public void testGridHoldsTheRowsItWasMadeFrom() {
+        DataSet dataSet = createGrid();
+        RasterGrid before = dataSet.toRaster();
+
+        dataSet.addData(99, 513500, 172500, 5);
+        assertTrue(Double.isNaN(before.valueAt(513500, 172500)));
+        assertNotSame(before, dataSet.toRaster());
+        assertEquals(5.0, dataSet.toRaster().valueAt(513500, 172500));
+    }
+}
@@ -0,0 +1,319 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * RunningStatistics keeps summary statistics of the valid values of a dataset, and
+ * updates them one value at a time, so that they are ready as soon as the data has
+ * been loaded: the number of valid values, their sum, the lowest and highest value,
+ * the row of the highest value, and the mean and variance.
+ *
+ * The mean and variance are updated with Welford's method, which does not lose
+ * precision the way subtracting large sums of squares does. Two statistics over
+ * consecutive parts of a dataset can be merged, which gives the same result as adding
+ * all the values to one.
+ *
+ * The distribution of the values is kept as well, in a QuantileSketch for estimating
+ * percentiles and a Histogram with bins of 1 (µg/m³) for counting the values that
+ * reach a limit. Both are merged along with the rest. Keeping them takes a logarithm
+ * and two array updates per value, so statistics can be made without them, and be
+ * given them later from the values they were made from (see addDistribution).
+ *
+ * Values below 0 are missing values, and are not counted.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class RunningStatistics
+{
+    // the histogram has bins of 1 from 0 up to 128 and above
+    private static final double HISTOGRAM_BIN_WIDTH = 1;
+    private static final int HISTOGRAM_BINS = 128;
+
+    private int count;
+    private double sum;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private int maxRow = -1;
+    private double mean;
+    // sum of the squared differences from the mean
+    private double squares;
+    // the distribution of the values, or null if it is not kept
+    private QuantileSketch sketch;
+    private Histogram histogram;
+
+    /**
+     * Create empty statistics that keep the distribution of the values.
+     */
+    public RunningStatistics()
+    {
+        this(true);
+    }
+
+    /**
+     * Create empty statistics.
+     *
+     * @param keepDistribution  True to keep the distribution of the values
+     */
+    public RunningStatistics(boolean keepDistribution)
+    {
+        if (keepDistribution) {
+            sketch = new QuantileSketch();
+            histogram = new Histogram(HISTOGRAM_BIN_WIDTH, HISTOGRAM_BINS);
+        }
+    }
+
+    /**
+     * Add the value of a row. Missing values are ignored. If the value equals the
+     * highest so far, the earlier row is kept.
+     *
+     * @param row  The row of the value in its dataset
+     * @param value  The value
+     */
+    public void add(int row, double value)
+    {
+        if (!(value >= 0)) {
+            return;
+        }
+        count++;
+        sum += value;
+        if (count == 1) {
+            min = value;
+            max = value;
+            maxRow = row;
+        }
+        else {
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+                maxRow = row;
+            }
+        }
+        double delta = value - mean;
+        mean += delta / count;
+        squares += delta * (value - mean);
+        if (sketch != null) {
+            sketch.add(value);
+            histogram.add(value);
+        }
+    }
+
+    /**
+     * Return true if the distribution of the values is kept.
+     */
+    public boolean hasDistribution()
+    {
+        return sketch != null;
+    }
+
+    /**
+     * Work out the distribution of the values from the values the statistics were
+     * made from, and keep it from now on. Missing values are ignored, as in add.
+     *
+     * @param values  The values
+     * @param from  The first value
+     * @param to  The value after the last one
+     */
+    public void addDistribution(double[] values, int from, int to)
+    {
+        sketch = new QuantileSketch();
+        histogram = new Histogram(HISTOGRAM_BIN_WIDTH, HISTOGRAM_BINS);
+        for (int i = from; i < to; i++) {
+            sketch.add(values[i]);
+            histogram.add(values[i]);
+        }
+    }
+
+    /**
+     * Add the statistics of the rows that follow the rows of these statistics. The
+     * distribution is only kept if both statistics keep it.
+     *
+     * @param other  The statistics of the following rows
+     * @param rowOffset  The number to add to the rows of the other statistics
+     */
+    public void merge(RunningStatistics other, int rowOffset)
+    {
+        if (other.count == 0) {
+            return;
+        }
+        if (sketch != null && other.sketch != null) {
+            sketch.merge(other.sketch);
+            histogram.merge(other.histogram);
+        }
+        else {
+            sketch = null;
+            histogram = null;
+        }
+        if (count == 0) {
+            count = other.count;
+            sum = other.sum;
+            min = other.min;
+            max = other.max;
+            maxRow = other.maxRow + rowOffset;
+            mean = other.mean;
+            squares = other.squares;
+            return;
+        }
+        int total = count + other.count;
+        double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        squares += other.squares + delta * delta * ((double) count * other.count / total);
+        count = total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        if (other.max > max) {
+            max = other.max;
+            maxRow = other.maxRow + rowOffset;
+        }
+    }
+
+    /**
+     * Return the number of valid values.
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Return the sum of the valid values.
+     */
+    public double getSum()
+    {
+        return sum;
+    }
+
+    /**
+     * Return the lowest valid value, or NaN if there is none.
+     */
+    public double getMin()
+    {
+        return min;
+    }
+
+    /**
+     * Return the highest valid value, or NaN if there is none.
+     */
+    public double getMax()
+    {
+        return max;
+    }
+
+    /**
+     * Return the row of the highest valid value, or -1 if there is none.
+     */
+    public int getMaxRow()
+    {
+        return maxRow;
+    }
+
+    /**
+     * Return the mean of the valid values, or NaN if there is none.
+     */
+    public double getMean()
+    {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * Return the variance of the valid values (dividing by their number), or NaN if
+     * there is none.
+     */
+    public double getVariance()
+    {
+        return count == 0 ? Double.NaN : squares / count;
+    }
+
+    /**
+     * Return the standard deviation of the valid values, or NaN if there is none.
+     */
+    public double getStandardDeviation()
+    {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * Return an estimate of a percentile of the valid values, or NaN if there is none.
+     *
+     * @param percent  The percentile, from 0 to 100; 50 is the median
+     * @throws IllegalStateException  if the distribution is not kept
+     */
+    public double getPercentile(double percent)
+    {
+        return getSketch().getQuantile(percent / 100);
+    }
+
+    /**
+     * Return the sketch of the distribution of the valid values.
+     *
+     * @throws IllegalStateException  if the distribution is not kept
+     */
+    public QuantileSketch getSketch()
+    {
+        checkDistribution();
+        return sketch;
+    }
+
+    /**
+     * Return the histogram of the valid values.
+     *
+     * @throws IllegalStateException  if the distribution is not kept
+     */
+    public Histogram getHistogram()
+    {
+        checkDistribution();
+        return histogram;
+    }
+
+    private void checkDistribution()
+    {
+        if (sketch == null) {
+            throw new IllegalStateException("the distribution of the values is not kept");
+        }
+    }
+
+    /**
+     * Write the statistics to a stream, including the sketch and histogram.
+     *
+     * @throws IllegalStateException  if the distribution is not kept
+     */
+    public void write(DataOutput out) throws IOException
+    {
+        checkDistribution();
+        out.writeInt(count);
+        out.writeDouble(sum);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeInt(maxRow);
+        out.writeDouble(mean);
+        out.writeDouble(squares);
+        sketch.write(out);
+        histogram.write(out);
+    }
+
+    /**
+     * Read statistics written by write.
+     */
+    public static RunningStatistics read(DataInput in) throws IOException
+    {
+        RunningStatistics statistics = new RunningStatistics();
+        statistics.count = in.readInt();
+        statistics.sum = in.readDouble();
+        statistics.min = in.readDouble();
+        statistics.max = in.readDouble();
+        statistics.maxRow = in.readInt();
+        statistics.mean = in.readDouble();
+        statistics.squares = in.readDouble();
+        statistics.sketch = QuantileSketch.read(in);
+        statistics.histogram = Histogram.read(in);
+        return statistics;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "count " + count + ", mean " + getMean() + ", min " + min + ", max " + max;
+    }
+}
@@ -0,0 +1,172 @@
+import java.util.Arrays;
+
+/**
+ * A ScreenGridIndex finds the square drawn on the map that lies under a screen
+ * position, without looking at every square.
+ *
+ * The screen is divided into buckets of equal size, and each square is listed in every
+ * bucket it overlaps. A lookup only checks the squares in the bucket under the
+ * position, so it takes constant time on average and creates no objects. The buckets
+ * are stored in two flat arrays: the start of each bucket's list, and the lists
+ * themselves.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class ScreenGridIndex
+{
+    private int squareSize;
+    private int bucketSize;
+    private int columns;
+    private int rows;
+
+    private int[] left;
+    private int[] top;
+    // bucketStart[b] .. bucketStart[b + 1] are the positions of bucket b in entries
+    private int[] bucketStart;
+    private int[] entries;
+
+    /**
+     * Build an index over squares of the given size.
+     *
+     * @param left  The left edge of each square
+     * @param top  The top edge of each square
+     * @param count  The number of squares (the arrays may be longer)
+     * @param squareSize  The width and height of every square
+     * @param width  The width of the screen area
+     * @param height  The height of the screen area
+     */
+    public ScreenGridIndex(int[] left, int[] top, int count, int squareSize, double width, double height)
+    {
+        this.left = left;
+        this.top = top;
+        this.squareSize = squareSize;
+        this.bucketSize = Math.max(squareSize, 1);
+        this.columns = Math.max((int) Math.ceil(width / bucketSize), 1);
+        this.rows = Math.max((int) Math.ceil(height / bucketSize), 1);
+
+        // count the squares in each bucket, then turn the counts into start positions
+        bucketStart = new int[columns * rows + 1];
+        for (int i = 0; i < count; i++) {
+            for (int row = firstRow(i); row <= lastRow(i); row++) {
+                for (int column = firstColumn(i); column <= lastColumn(i); column++) {
+                    bucketStart[row * columns + column + 1]++;
+                }
+            }
+        }
+        for (int b = 0; b < columns * rows; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+
+        entries = new int[bucketStart[columns * rows]];
+        int[] next = new int[columns * rows];
+        for (int i = 0; i < count; i++) {
+            for (int row = firstRow(i); row <= lastRow(i); row++) {
+                for (int column = firstColumn(i); column <= lastColumn(i); column++) {
+                    int bucket = row * columns + column;
+                    entries[bucketStart[bucket] + next[bucket]++] = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the square that contains the position and whose centre is closest to it.
+     * Squares include their edges. If several squares are equally close, the one that
+     * was added first is returned.
+     *
+     * @return  The number of the square, or -1 if no square contains the position
+     */
+    public int find(double x, double y)
+    {
+        if (x < 0 || y < 0) {
+            return -1;
+        }
+        int column = (int) (x / bucketSize);
+        int row = (int) (y / bucketSize);
+        if (column >= columns || row >= rows) {
+            return -1;
+        }
+
+        int bucket = row * columns + column;
+        int closest = -1;
+        double closestDistance = Double.MAX_VALUE;
+        for (int e = bucketStart[bucket]; e < bucketStart[bucket + 1]; e++) {
+            int i = entries[e];
+            if (x >= left[i] && x <= left[i] + squareSize && y >= top[i] && y <= top[i] + squareSize) {
+                double dx = left[i] + squareSize / 2.0 - x;
+                double dy = top[i] + squareSize / 2.0 - y;
+                double distance = dx * dx + dy * dy;
+                if (distance < closestDistance) {
+                    closestDistance = distance;
+                    closest = i;
+                }
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Return the squares that overlap a rectangle, in the order they were added. The
+     * right and bottom edges of the rectangle are not included.
+     */
+    public int[] findOverlapping(int areaLeft, int areaTop, int areaRight, int areaBottom)
+    {
+        int[] found = new int[16];
+        int count = 0;
+        if (areaRight <= areaLeft || areaBottom <= areaTop) {
+            return new int[0];
+        }
+        for (int row = clamp(areaTop / bucketSize, rows); row <= clamp((areaBottom - 1) / bucketSize, rows); row++) {
+            for (int column = clamp(areaLeft / bucketSize, columns);
+                 column <= clamp((areaRight - 1) / bucketSize, columns); column++) {
+                int bucket = row * columns + column;
+                for (int e = bucketStart[bucket]; e < bucketStart[bucket + 1]; e++) {
+                    int i = entries[e];
+                    if (left[i] < areaRight && left[i] + squareSize > areaLeft
+                        && top[i] < areaBottom && top[i] + squareSize > areaTop) {
+                        if (count == found.length) {
+                            found = Arrays.copyOf(found, count * 2);
+                        }
+                        found[count++] = i;
+                    }
+                }
+            }
+        }
+
+        // a square that spans several buckets was found once in each of them
+        Arrays.sort(found, 0, count);
+        int distinct = 0;
+        for (int f = 0; f < count; f++) {
+            if (distinct == 0 || found[distinct - 1] != found[f]) {
+                found[distinct++] = found[f];
+            }
+        }
+        return Arrays.copyOf(found, distinct);
+    }
+
+    private int firstColumn(int i)
+    {
+        return clamp(left[i] / bucketSize, columns);
+    }
+
+    private int lastColumn(int i)
+    {
+        return clamp((left[i] + squareSize) / bucketSize, columns);
+    }
+
+    private int firstRow(int i)
+    {
+        return clamp(top[i] / bucketSize, rows);
+    }
+
+    private int lastRow(int i)
+    {
+        return clamp((top[i] + squareSize) / bucketSize, rows);
+    }
+
+    private static int clamp(int value, int limit)
+    {
+        return Math.max(0, Math.min(value, limit - 1));
+    }
+}
@@ -9,9 +9,6 @@ import javafx.scene.chart.XYChart;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.stage.Stage;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
 
 /**
  * The StatistcsApp class displays a chart of the pollution over time.
@@ -24,17 +21,30 @@ import java.util.List;
 public class StatisticsApp {
 
     private String pollutant = "NO2";
-    private FileLoader fileLoader = new FileLoader();
+    private MultiYearAggregator aggregator;
     private LineChart<Number, Number> chart;
 
-    //Map coordinates
-    private int leftX = 510394; //Left edge of map
-    private int rightX = 553297; //Right edge of map
-    private int bottomY = 168504; //Bottom edge of map
-    private int topY = 193305; //Top edge of map
+    // only the data inside the map is loaded
+    private static final BoundingBox MAP_AREA = BoundingBox.LONDON;
     
     public StatisticsApp() {
-        
+        this(new FileLoader());
+    }
+    
+    /**
+     * Create a StatisticsApp that loads its data through the given FileLoader,
+     * so that datasets cached by the loader are shared with other views.
+     */
+    public StatisticsApp(FileLoader fileLoader) {
+        this(new MultiYearAggregator(fileLoader, MAP_AREA));
+    }
+    
+    /**
+     * Create a StatisticsApp that gets its statistics from the given aggregator, so
+     * that the summaries it has worked out are kept when the view is shown again.
+     */
+    public StatisticsApp(MultiYearAggregator aggregator) {
+        this.aggregator = aggregator;
     }
     
     private String getFileFormatPollutant(String uiPollutant) {
@@ -68,17 +78,19 @@ public class StatisticsApp {
 
         Button avgButton = new Button("Average");
         Button highestButton = new Button("Highest Levels");
+        Button percentileButton = new Button("Percentiles");
 
         avgButton.setOnAction(e -> returnAverage());
         highestButton.setOnAction(e -> showHighestLevels());
+        percentileButton.setOnAction(e -> showPercentiles());
 
-        HBox buttonBox = new HBox(10, avgButton, highestButton);
+        HBox buttonBox = new HBox(10, avgButton, highestButton, percentileButton);
         buttonBox.setStyle("-fx-padding: 10; -fx-alignment: center;");
         
         //Pollutant selection
         Label pollutantLabel = new Label("Select Pollutatnt:");
         ComboBox<String> pollutantComboBox = new ComboBox<>();
-        pollutantComboBox.getItems().addAll("NO2", "PM10", "PM2.5");
+        pollutantComboBox.getItems().addAll(FileLoader.POLLUTANTS);
         pollutantComboBox.setValue(pollutant);
         pollutantComboBox.setOnAction(e -> {
             String selectedValue = pollutantComboBox.getValue();
@@ -105,66 +117,6 @@ public class StatisticsApp {
         return panel;
     }
     
-    /**
-     * makes sure that the dataPoint is not missing, not smaller than 0 and within our map
-     */
-    private boolean isValidDataPoint(DataPoint point) {
-        if (point == null) {
-            return false;
-        }
-        
-        if (point.value() < 0) {
-            return false;
-        }
-        
-        if (!isInMap(point.x(), point.y())) {
-            return false;
-        }
-        return true;
-    }
-    
-    /**
-     * Calculate average pollution from valid data points only
-     */
-    private double calculateValidAverage(DataSet dataSet) {
-        if (dataSet == null) {
-            return 0.0;
-        }
-        
-        List<DataPoint> allPoints = dataSet.getData();
-        double sum = 0.0;
-        int count = 0;
-        
-        for (DataPoint point : allPoints) {
-            if (isValidDataPoint(point)) {
-                sum += point.value();
-                count++;
-            }
-        }
-        return count > 0 ? sum / count : 0.0;
-    }
-    
-    /**
-     * Find highest valid pollution point
-     */
-    private DataPoint findValidHighestPoint(DataSet dataSet) {
-        if (dataSet == null) {
-            return null;
-        }
-        
-        List<DataPoint> allPoints = dataSet.getData();
-        DataPoint highest = null;
-        
-        for (DataPoint point : allPoints) {
-            if (isValidDataPoint(point)) {
-                if (highest == null || point.value() > highest.value()) {
-                    highest = point;
-                }
-            }
-        }
-        return highest;
-    }
-    
     /**
      * creates a line chart
      */
@@ -201,25 +153,9 @@ public class StatisticsApp {
         newChart.setTitle("Pollution Trends");
         newChart.setAnimated(false);
         
-        XYChart.Series<Number, Number> series = new XYChart.Series<>();
-        series.setName("Air Quality Index");
         System.out.println("Generating chart for: " + pollutant);
         
-        double [] values = new double[6];
-        String[] years = {"2018", "2019", "2020", "2021", "2022", "2023"};
-        
-        for (int i = 0; i < years.length; i++) {
-            DataSet dataSet = fileLoader.loadPollutionData(pollutant, years[i]);
-            values[i] = calculateValidAverage(dataSet);
-            series.getData().add(new XYChart.Data<>(Integer.parseInt(years[i]), values[i]));
-        }
-
-        newChart.getData().add(series);
-        
-        double maxValue = 0;
-        for (double val : values) {
-            if (val > maxValue) maxValue = val;
-        }
+        double maxValue = addYearSeries(newChart, "Air Quality Index");
         
         double upperBound = Math.ceil((maxValue * 1.2) /10) * 10;
         ((NumberAxis)newChart.getYAxis()).setUpperBound(upperBound);
@@ -228,6 +164,41 @@ public class StatisticsApp {
         return newChart;
     }
 
+    /**
+     * Adds the average of each year to the chart, with the 5th percentile, median and
+     * 95th percentile around it, and returns the largest value shown.
+     */
+    private double addYearSeries(LineChart<Number, Number> target, String averageName) {
+        XYChart.Series<Number, Number> average = new XYChart.Series<>();
+        average.setName(averageName);
+        XYChart.Series<Number, Number> low = new XYChart.Series<>();
+        low.setName("5th percentile");
+        XYChart.Series<Number, Number> median = new XYChart.Series<>();
+        median.setName("Median");
+        XYChart.Series<Number, Number> high = new XYChart.Series<>();
+        high.setName("95th percentile");
+        
+        MultiYearAggregator.Summary summary = aggregator.getSummary(pollutant);
+        double maxValue = 0;
+        for (int i = 0; i < FileLoader.YEARS.size(); i++) {
+            RunningStatistics statistics = summary.getStatistics(i);
+            int x = Integer.parseInt(FileLoader.YEARS.get(i));
+            average.getData().add(new XYChart.Data<>(x, summary.getAverage(i)));
+            if (statistics.getCount() > 0) {
+                low.getData().add(new XYChart.Data<>(x, statistics.getPercentile(5)));
+                median.getData().add(new XYChart.Data<>(x, statistics.getPercentile(50)));
+                high.getData().add(new XYChart.Data<>(x, statistics.getPercentile(95)));
+                maxValue = Math.max(maxValue, statistics.getPercentile(95));
+            }
+        }
+        
+        target.getData().add(average);
+        target.getData().add(low);
+        target.getData().add(median);
+        target.getData().add(high);
+        return maxValue;
+    }
+
     /**
      * updates the chart with new data
      */
@@ -264,28 +235,12 @@ public class StatisticsApp {
         });
         
         chart.getData().clear(); // Clear the existing data
-        XYChart.Series<Number, Number> series = new XYChart.Series<>();
-        series.setName(getPollutantDisplayName(pollutant) + " Air Quality Index");
 
         System.out.println("Updating chart for pollutant: " + pollutant);
         
-        double[] values = new double[6];
-        String[] years = {"2018", "2019", "2020", "2021", "2022", "2023"};
-        
-        for (int i  = 0; i < years.length; i++) {
-        DataSet dataSet = fileLoader.loadPollutionData(pollutant, years[i]);
-        values[i] = calculateValidAverage(dataSet);
-        series.getData().add(new XYChart.Data<>(Integer.parseInt(years[i]), values[i]));
-        }
-    
-        chart.getData().add(series);
+        double maxValue = addYearSeries(chart, getPollutantDisplayName(pollutant) + " Air Quality Index");
         chart.setTitle(pollutant + " Pollution Trends");
         
-        // Calculate good Y-axis scale based on data
-        double maxValue = 0;
-        for (double val : values) {
-            if (val > maxValue) maxValue = val;
-        }
         
         // Add 20% padding to max value and round up to nearest 10
         double upperBound = Math.ceil((maxValue * 1.2) / 10) * 10;
@@ -323,14 +278,12 @@ public class StatisticsApp {
      * returns the average pollution level over all years
      */
     public void returnAverage() {
-        List<String> cache = new ArrayList<>();
-        Collections.addAll(cache, "2018", "2019", "2020", "2021", "2022", "2023");
+        MultiYearAggregator.Summary summary = aggregator.getSummary(pollutant);
         double total = 0;
         int validYears = 0;
         
-        for (String year : cache) {
-            DataSet dataSet = fileLoader.loadPollutionData(pollutant, year);
-            double value = calculateValidAverage(dataSet);
+        for (int i = 0; i < FileLoader.YEARS.size(); i++) {
+            double value = summary.getAverage(i);
             
             if (value > 0) {
                 total += value;
@@ -350,24 +303,14 @@ public class StatisticsApp {
      * returns the highest pollution level over all years
      */
     public void showHighestLevels() {
-        List<String> cache2 = new ArrayList<>();
-        Collections.addAll(cache2, "2018", "2019", "2020", "2021", "2022", "2023");
-        DataPoint highest = null;
-        String highestYear = "";
-        
-        for (String year : cache2) {
-            DataSet dataSet = fileLoader.loadPollutionData(pollutant, year);
-            DataPoint potential = findValidHighestPoint(dataSet);
-            if (potential != null && (highest == null || potential.value() > highest.value())) {
-                highest = potential;
-                highestYear = year;
-            }
-        }
+        MultiYearAggregator.Summary summary = aggregator.getSummary(pollutant);
+        DataPoint highest = summary.getHighest();
+        String highestYear = summary.getHighestYear();
         Alert alert = new Alert(AlertType.INFORMATION);
         alert.setTitle(getPollutantDisplayName(pollutant) + " Highest Pollution Level");
         alert.setHeaderText("Data Summary");
         if (highest != null) {
-            alert.setContentText(String.format("The highest pollution level from 2018 to 2023 was: %.2f µg/m³ at location (%.2f, %.2f)", highest.value(), highestYear, highest.x(), highest.y()));
+            alert.setContentText(String.format("The highest pollution level from 2018 to 2023 was: %.2f µg/m³ in %s at location (%d, %d)", highest.value(), highestYear, highest.x(), highest.y()));
         } else {
             alert.setContentText("No data available for the highest pollution level.");
         }
@@ -375,9 +318,29 @@ public class StatisticsApp {
     }
     
     /**
-     * Check if point is in map boundaries
+     * shows the percentiles of the pollution levels over all years, and how many of
+     * them reach the high threshold of the pollutant
      */
-    private boolean isInMap(int x, int y) {
-        return x >= leftX && x <= rightX && y >= bottomY && y <= topY;
+    public void showPercentiles() {
+        RunningStatistics statistics = aggregator.getSummary(pollutant).getTotal();
+        
+        Alert alert = new Alert(AlertType.INFORMATION);
+        alert.setTitle(getPollutantDisplayName(pollutant) + " Pollution Percentiles");
+        alert.setHeaderText("Data Summary");
+        if (statistics.getCount() > 0) {
+            double limit = ColorScale.forPollutant(pollutant, ColorScale.Scheme.BANDS).getBandStart(ColorScale.BANDS - 1);
+            long reached = statistics.getHistogram().countAtLeast(limit);
+            alert.setContentText(String.format("Pollution levels from 2018 to 2023 (µg/m³):%n"
+                + "5th percentile: %.2f%n25th percentile: %.2f%nMedian: %.2f%n75th percentile: %.2f%n95th percentile: %.2f%n"
+                + "%d of %d values (%.1f%%) were at least %.0f µg/m³",
+                statistics.getPercentile(5), statistics.getPercentile(25), statistics.getPercentile(50),
+                statistics.getPercentile(75), statistics.getPercentile(95),
+                reached, statistics.getCount(), 100.0 * reached / statistics.getCount(), limit));
+        } else {
+            alert.setContentText("No data available for the pollution percentiles.");
+        }
+        alert.showAndWait();
     }
-}
\ No newline at end of file
+    
+
+}
@@ -0,0 +1,264 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * A SummaryFile stores the DataSummary of a csv file next to it, so that the
+ * statistics view can show the statistics of a file without reading its rows.
+ *
+ * The file layout (big-endian) is:
+ *
+ *     magic "LAPS", format version
+ *     size, last-modified time and CRC32 of the contents of the csv file
+ *     pollutant, year, metric, units (modified UTF-8)
+ *     whether there is an area, and its edges
+ *     whether there is a highest point, and its grid code, x, y and value
+ *     the running statistics, with their sketch and histogram
+ *     CRC32 checksum of everything above
+ *
+ * A summary is up to date if the size of the csv file matches, and either its
+ * modification time or, when only that has changed (for example after the file was
+ * copied), the CRC32 of its contents matches. In that case the summary file is
+ * written again with the new time, so that the contents are only read once. Otherwise
+ * it is stale, and treated as missing.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class SummaryFile
+{
+    private static final int MAGIC = 0x4C415053;   // "LAPS"
+    private static final int VERSION = 1;
+    private static final String SUFFIX = ".summary";
+
+    /**
+     * Return the path of the summary file of the rows of a csv file inside an area.
+     * It is in the same folder, with the extension replaced by the edges of the area
+     * and ".summary".
+     *
+     * @param area  The area, or null for the whole file
+     */
+    public static Path sidecarFor(Path csvFile, BoundingBox area)
+    {
+        String name = csvFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return csvFile.resolveSibling(base + (area == null ? "" : "." + area) + SUFFIX);
+    }
+
+    /**
+     * Read a summary, if the file is present and up to date with the csv file. If only
+     * the modification time of the csv file has changed, the summary file is updated
+     * to it.
+     *
+     * @param file  The summary file
+     * @param csvFile  The csv file it was made from
+     * @return  The summary, or null if the file is missing, stale or damaged
+     */
+    public static DataSummary read(Path file, Path csvFile)
+    {
+        DataInputStream in = open(file);
+        if (in == null) {
+            return null;
+        }
+        try {
+            long csvSize = in.readLong();
+            long csvModified = in.readLong();
+            long csvHash = in.readLong();
+            if (csvSize != Files.size(csvFile)) {
+                return null;
+            }
+            long modified = Files.getLastModifiedTime(csvFile).toMillis();
+            if (modified != csvModified && csvHash != hash(csvFile)) {
+                return null;
+            }
+
+            String pollutant = in.readUTF();
+            String year = in.readUTF();
+            String metric = in.readUTF();
+            String units = in.readUTF();
+            BoundingBox area = null;
+            if (in.readBoolean()) {
+                area = new BoundingBox(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+            }
+            DataPoint highest = null;
+            if (in.readBoolean()) {
+                highest = new DataPoint(in.readInt(), in.readInt(), in.readInt(), in.readDouble());
+            }
+            RunningStatistics statistics = RunningStatistics.read(in);
+            DataSummary summary = new DataSummary(pollutant, year, metric, units, area, statistics, highest);
+            if (modified != csvModified) {
+                try {
+                    write(summary, file, csvSize, modified, csvHash);
+                }
+                catch(IOException e) {
+                    System.out.println("Could not write file " + file + ": " + e);
+                }
+            }
+            return summary;
+        }
+        catch(IOException | RuntimeException e) {
+            System.out.println("Could not read file " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Return true if the summary file is present and undamaged, and was made from a
+     * csv file of the given size and modification time. Unlike read, the contents of
+     * the csv file are not looked at, so a file whose time has changed is not
+     * current even if its contents are the same.
+     *
+     * @param file  The summary file
+     * @param csvSize  The size of the csv file
+     * @param csvModified  The modification time of the csv file, in milliseconds
+     */
+    public static boolean isCurrent(Path file, long csvSize, long csvModified)
+    {
+        DataInputStream in = open(file);
+        if (in == null) {
+            return false;
+        }
+        try {
+            return in.readLong() == csvSize && in.readLong() == csvModified;
+        }
+        catch(IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Read a summary file and check its checksum and header.
+     *
+     * @return  A stream of the contents after the header and before the checksum, or
+     *          null if the file is missing, damaged or of another format
+     */
+    private static DataInputStream open(Path file)
+    {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            if (bytes.length < 40) {
+                return null;
+            }
+            int checksumPosition = bytes.length - Long.BYTES;
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, checksumPosition);
+            if (crc.getValue() != ByteBuffer.wrap(bytes, checksumPosition, Long.BYTES).getLong()) {
+                System.out.println("Ignoring damaged file " + file);
+                return null;
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, checksumPosition));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            return in;
+        }
+        catch(IOException e) {
+            System.out.println("Could not read file " + file);
+            return null;
+        }
+    }
+
+    /**
+     * Write the summary of a csv file. The csv file is read once to work out the
+     * CRC32 of its contents. The file is written under a temporary name and then
+     * moved into place, so readers never see a half written file.
+     *
+     * @param summary  The summary to write
+     * @param file  The summary file
+     * @param csvFile  The csv file the summary was made from
+     */
+    public static void write(DataSummary summary, Path file, Path csvFile) throws IOException
+    {
+        write(summary, file, csvFile, Files.size(csvFile), Files.getLastModifiedTime(csvFile).toMillis());
+    }
+
+    /**
+     * Write the summary of a csv file that had the given size and modification time
+     * when the summary was made. If the csv file has changed since, nothing is
+     * written, as the summary may not match its contents any more.
+     *
+     * @param csvSize  The size of the csv file when the summary was made
+     * @param csvModified  The modification time of the csv file then, in milliseconds
+     * @return  True if the summary was written
+     */
+    public static boolean write(DataSummary summary, Path file, Path csvFile, long csvSize, long csvModified)
+        throws IOException
+    {
+        long csvHash = hash(csvFile);
+        if (Files.size(csvFile) != csvSize || Files.getLastModifiedTime(csvFile).toMillis() != csvModified) {
+            return false;
+        }
+        write(summary, file, csvSize, csvModified, csvHash);
+        return true;
+    }
+
+    /**
+     * Write a summary with the given size, time and CRC32 of its csv file.
+     */
+    private static void write(DataSummary summary, Path file, long csvSize, long csvModified, long csvHash)
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(csvSize);
+        out.writeLong(csvModified);
+        out.writeLong(csvHash);
+        out.writeUTF(summary.getPollutant());
+        out.writeUTF(summary.getYear());
+        out.writeUTF(summary.getMetric());
+        out.writeUTF(summary.getUnits());
+        BoundingBox area = summary.getArea();
+        out.writeBoolean(area != null);
+        if (area != null) {
+            out.writeInt(area.getMinX());
+            out.writeInt(area.getMinY());
+            out.writeInt(area.getMaxX());
+            out.writeInt(area.getMaxY());
+        }
+        DataPoint highest = summary.getHighest();
+        out.writeBoolean(highest != null);
+        if (highest != null) {
+            out.writeInt(highest.gridCode());
+            out.writeInt(highest.x());
+            out.writeInt(highest.y());
+            out.writeDouble(highest.value());
+        }
+        summary.getStatistics().write(out);
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Return the CRC32 of the contents of a file.
+     */
+    public static long hash(Path file) throws IOException
+    {
+        try (CheckedInputStream in = new CheckedInputStream(Files.newInputStream(file), new CRC32())) {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) != -1) {
+                // only the checksum is needed
+            }
+            return in.getChecksum().getValue();
+        }
+    }
+}
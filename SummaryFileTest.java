@@ -0,0 +1,105 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+public class SummaryFileTest {
+
+    private static final BoundingBox AREA = new BoundingBox(100000, 50000, 160000, 90000);
+
+    @Test
+    public void testSummaryIsReadBackUnchanged() throws IOException {
+        Path csv = DataLoaderBenchmark.writeSyntheticFile(5000);
+        csv.toFile().deleteOnExit();
+        DataSummary summary = DataSummary.of(new DataLoader().loadDataFile(csv), AREA);
+        Path file = SummaryFile.sidecarFor(csv, AREA);
+        file.toFile().deleteOnExit();
+        SummaryFile.write(summary, file, csv);
+
+        DataSummary read = SummaryFile.read(file, csv);
+        assertNotNull(read);
+        assertEquals(summary.getPollutant(), read.getPollutant());
+        assertEquals(summary.getUnits(), read.getUnits());
+        assertEquals(AREA, read.getArea());
+        assertEquals(summary.getHighest(), read.getHighest());
+        RunningStatistics expected = summary.getStatistics();
+        RunningStatistics statistics = read.getStatistics();
+        assertEquals(expected.getCount(), statistics.getCount());
+        assertEquals(expected.getSum(), statistics.getSum());
+        assertEquals(expected.getVariance(), statistics.getVariance());
+        assertEquals(expected.getPercentile(90), statistics.getPercentile(90));
+        assertEquals(expected.getHistogram().countAtLeast(30), statistics.getHistogram().countAtLeast(30));
+    }
+
+    @Test
+    public void testChangedFileMakesTheSummaryStale() throws IOException {
+        Path csv = DataLoaderBenchmark.writeSyntheticFile(2000);
+        csv.toFile().deleteOnExit();
+        Path file = SummaryFile.sidecarFor(csv, null);
+        file.toFile().deleteOnExit();
+        SummaryFile.write(DataSummary.of(new DataLoader().loadDataFile(csv), null), file, csv);
+
+        // a new modification time alone is fine, as long as the contents are the same
+        Files.setLastModifiedTime(csv, FileTime.fromMillis(Files.getLastModifiedTime(csv).toMillis() - 60000));
+        assertNotNull(SummaryFile.read(file, csv));
+
+        Files.write(csv, "1,500,500,1.0\r\n".getBytes(), StandardOpenOption.APPEND);
+        assertNull(SummaryFile.read(file, csv));
+    }
+
+    @Test
+    public void testNewTimeIsStoredSoTheContentsAreHashedOnce() throws IOException {
+        Path csv = DataLoaderBenchmark.writeSyntheticFile(2000);
+        csv.toFile().deleteOnExit();
+        Path file = SummaryFile.sidecarFor(csv, null);
+        file.toFile().deleteOnExit();
+        SummaryFile.write(DataSummary.of(new DataLoader().loadDataFile(csv), null), file, csv);
+        FileTime touched = FileTime.fromMillis(Files.getLastModifiedTime(csv).toMillis() - 60000);
+        Files.setLastModifiedTime(csv, touched);
+        assertNotNull(SummaryFile.read(file, csv));
+
+        // the same size and the stored time: the contents are not looked at again
+        byte[] contents = Files.readAllBytes(csv);
+        contents[contents.length - 3] = (byte) (contents[contents.length - 3] == '1' ? '2' : '1');
+        Files.write(csv, contents);
+        Files.setLastModifiedTime(csv, touched);
+        assertNotNull(SummaryFile.read(file, csv));
+    }
+
+    @Test
+    public void testOnlyAFileOfTheSameSizeAndTimeIsCurrent() throws IOException {
+        Path csv = DataLoaderBenchmark.writeSyntheticFile(100);
+        csv.toFile().deleteOnExit();
+        Path file = SummaryFile.sidecarFor(csv, null);
+        file.toFile().deleteOnExit();
+        long size = Files.size(csv);
+        long modified = Files.getLastModifiedTime(csv).toMillis();
+        assertFalse(SummaryFile.isCurrent(file, size, modified));
+        SummaryFile.write(DataSummary.of(new DataLoader().loadDataFile(csv), null), file, csv);
+
+        assertTrue(SummaryFile.isCurrent(file, size, modified));
+        assertFalse(SummaryFile.isCurrent(file, size, modified - 60000));
+        assertFalse(SummaryFile.isCurrent(file, size + 1, modified));
+        // once read with the new time, the summary file is current again
+        Files.setLastModifiedTime(csv, FileTime.fromMillis(modified - 60000));
+        assertNotNull(SummaryFile.read(file, csv));
+        assertTrue(SummaryFile.isCurrent(file, size, modified - 60000));
+    }
+
+    @Test
+    public void testSummaryOfAChangedFileIsNotWritten() throws IOException {
+        Path csv = DataLoaderBenchmark.writeSyntheticFile(100);
+        csv.toFile().deleteOnExit();
+        Path file = SummaryFile.sidecarFor(csv, null);
+        DataSummary summary = DataSummary.of(new DataLoader().loadDataFile(csv), null);
+        long size = Files.size(csv);
+        long modified = Files.getLastModifiedTime(csv).toMillis();
+
+        Files.write(csv, "1,500,500,1.0\r\n".getBytes(), StandardOpenOption.APPEND);
+        assertFalse(SummaryFile.write(summary, file, csv, size, modified));
+        assertFalse(Files.exists(file));
+    }
+}
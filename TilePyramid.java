@@ -0,0 +1,364 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A TilePyramid holds the data points of a dataset at several resolutions, split
+ * into square tiles, so that the map only has to look at the tiles it shows.
+ *
+ * Level 0 holds the 1 km cells of the dataset. Each further level averages the valid
+ * cells in blocks twice as wide: 2 km, 4 km and 8 km. Every tile covers the same
+ * number of blocks, so a tile of a coarser level covers a larger area. A map zoomed
+ * out far enough to show a large area uses a coarse level, and draws about the same
+ * number of blocks as a map zoomed in on a small area.
+ *
+ * Tiles are built from the dataset the first time they are asked for, and kept in a
+ * cache of limited size that drops the least recently used tiles. To build a tile
+ * quickly, the rows of the dataset are sorted into the level 0 tiles once, when the
+ * pyramid is created.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class TilePyramid
+{
+    /** The number of levels; level n has blocks of 2^n cells on each side. */
+    public static final int LEVELS = 4;
+    /** The width of a data cell, in metres. */
+    public static final int CELL_SIZE = 1000;
+    /** The number of blocks along each side of a tile. */
+    public static final int TILE_BLOCKS = 32;
+    // default number of tiles kept in the cache
+    private static final int DEFAULT_MAX_TILES = 256;
+
+    private DataSet dataSet;
+    // lower left corner of tile (0, 0) on every level
+    private int originX;
+    private int originY;
+    // level 0 tiles, and the rows in each: tileStart[t] .. tileStart[t + 1] in tileRows
+    private int columns;
+    private int rows;
+    private int[] tileStart;
+    private int[] tileRows;
+
+    private LinkedHashMap<Long, Tile> tiles;
+    private int maxTiles;
+    private long tilesBuilt;
+
+    /**
+     * Create a pyramid over a dataset with the default tile cache size.
+     */
+    public TilePyramid(DataSet dataSet)
+    {
+        this(dataSet, DEFAULT_MAX_TILES);
+    }
+
+    /**
+     * Create a pyramid over a dataset that keeps at most the given number of tiles.
+     */
+    public TilePyramid(DataSet dataSet, int maxTiles)
+    {
+        this.dataSet = dataSet;
+        this.maxTiles = maxTiles;
+        this.tiles = new LinkedHashMap<>(64, 0.75f, true);
+
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < dataSet.size(); i++) {
+            minX = Math.min(minX, dataSet.getX(i));
+            minY = Math.min(minY, dataSet.getY(i));
+            maxX = Math.max(maxX, dataSet.getX(i));
+            maxY = Math.max(maxY, dataSet.getY(i));
+        }
+        if (dataSet.size() == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+
+        // line the tiles up with the blocks of the coarsest level
+        int coarsest = getBlockSize(LEVELS - 1);
+        originX = Math.floorDiv(minX, coarsest) * coarsest;
+        originY = Math.floorDiv(minY, coarsest) * coarsest;
+        int tileSize = getTileSize(0);
+        columns = Math.floorDiv(maxX - originX, tileSize) + 1;
+        rows = Math.floorDiv(maxY - originY, tileSize) + 1;
+
+        // count the rows in each level 0 tile, then turn the counts into start positions
+        tileStart = new int[columns * rows + 1];
+        for (int i = 0; i < dataSet.size(); i++) {
+            tileStart[baseTileOf(i) + 1]++;
+        }
+        for (int t = 0; t < columns * rows; t++) {
+            tileStart[t + 1] += tileStart[t];
+        }
+        tileRows = new int[dataSet.size()];
+        int[] next = new int[columns * rows];
+        for (int i = 0; i < dataSet.size(); i++) {
+            int tile = baseTileOf(i);
+            tileRows[tileStart[tile] + next[tile]++] = i;
+        }
+    }
+
+    /**
+     * Return the width of a block on a level, in metres.
+     */
+    public static int getBlockSize(int level)
+    {
+        return CELL_SIZE << level;
+    }
+
+    /**
+     * Return the width of a tile on a level, in metres.
+     */
+    public static int getTileSize(int level)
+    {
+        return TILE_BLOCKS * getBlockSize(level);
+    }
+
+    /**
+     * Return the finest level whose blocks are at least the given number of pixels
+     * wide, or the coarsest level if none is.
+     *
+     * @param pixelsPerMetre  The scale of the map
+     * @param minBlockPixels  The smallest block width worth drawing, in pixels
+     */
+    public static int levelFor(double pixelsPerMetre, double minBlockPixels)
+    {
+        int level = 0;
+        while (level < LEVELS - 1 && getBlockSize(level) * pixelsPerMetre < minBlockPixels) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Return the tiles of a level that overlap an area, building the ones that are not
+     * in the cache. Tiles without any valid blocks are left out.
+     */
+    public List<Tile> getTiles(int level, double minX, double minY, double maxX, double maxY)
+    {
+        int tileSize = getTileSize(level);
+        int scale = 1 << level;
+        int firstColumn = Math.max((int) Math.floor((minX - originX) / tileSize), 0);
+        int firstRow = Math.max((int) Math.floor((minY - originY) / tileSize), 0);
+        int lastColumn = Math.min((int) Math.floor((maxX - originX) / tileSize), (columns - 1) / scale);
+        int lastRow = Math.min((int) Math.floor((maxY - originY) / tileSize), (rows - 1) / scale);
+
+        List<Tile> found = new ArrayList<>();
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                Tile tile = getTile(level, column, row);
+                if (tile.size() > 0) {
+                    found.add(tile);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Return a tile, building it if it is not in the cache.
+     */
+    public synchronized Tile getTile(int level, int column, int row)
+    {
+        Long key = ((long) level << 56) | ((long) column << 28) | row;
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            tile = buildTile(level, column, row);
+            tiles.put(key, tile);
+            tilesBuilt++;
+            Iterator<Tile> oldest = tiles.values().iterator();
+            while (tiles.size() > maxTiles) {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        return tile;
+    }
+
+    /**
+     * Return the number of tiles in the cache.
+     */
+    public synchronized int getCachedTileCount()
+    {
+        return tiles.size();
+    }
+
+    /**
+     * Return the number of tiles built so far, including ones built again after they
+     * were dropped from the cache.
+     */
+    public synchronized long getTilesBuilt()
+    {
+        return tilesBuilt;
+    }
+
+    /**
+     * Build a tile from the rows of the level 0 tiles it covers.
+     */
+    private Tile buildTile(int level, int column, int row)
+    {
+        int scale = 1 << level;
+        if (level == 0) {
+            Tile tile = new Tile(level, 64);
+            int base = row * columns + column;
+            for (int e = tileStart[base]; e < tileStart[base + 1]; e++) {
+                int r = tileRows[e];
+                double value = dataSet.getValue(r);
+                if (value >= 0) {
+                    tile.add(dataSet.getX(r), dataSet.getY(r), value, 1, r);
+                }
+            }
+            return tile.trim();
+        }
+
+        // add up the valid cells of each block
+        int blockSize = getBlockSize(level);
+        double[] sums = new double[TILE_BLOCKS * TILE_BLOCKS];
+        int[] counts = new int[TILE_BLOCKS * TILE_BLOCKS];
+        int tileLeft = originX + column * getTileSize(level);
+        int tileBottom = originY + row * getTileSize(level);
+        for (int baseRow = row * scale; baseRow < Math.min((row + 1) * scale, rows); baseRow++) {
+            for (int baseColumn = column * scale; baseColumn < Math.min((column + 1) * scale, columns); baseColumn++) {
+                int base = baseRow * columns + baseColumn;
+                for (int e = tileStart[base]; e < tileStart[base + 1]; e++) {
+                    int r = tileRows[e];
+                    double value = dataSet.getValue(r);
+                    if (value >= 0) {
+                        int block = (dataSet.getY(r) - tileBottom) / blockSize * TILE_BLOCKS
+                                  + (dataSet.getX(r) - tileLeft) / blockSize;
+                        sums[block] += value;
+                        counts[block]++;
+                    }
+                }
+            }
+        }
+
+        Tile tile = new Tile(level, 64);
+        for (int block = 0; block < sums.length; block++) {
+            if (counts[block] > 0) {
+                tile.add(tileLeft + (block % TILE_BLOCKS) * blockSize + blockSize / 2,
+                         tileBottom + (block / TILE_BLOCKS) * blockSize + blockSize / 2,
+                         sums[block] / counts[block], counts[block], -1);
+            }
+        }
+        return tile.trim();
+    }
+
+    private int baseTileOf(int i)
+    {
+        int tileSize = getTileSize(0);
+        return Math.floorDiv(dataSet.getY(i) - originY, tileSize) * columns
+             + Math.floorDiv(dataSet.getX(i) - originX, tileSize);
+    }
+
+    /**
+     * The blocks of one tile that have data: the centre of each block, the average of
+     * its valid cells, and the number of cells averaged. On level 0 each block is one
+     * cell, and its row in the dataset is kept as well.
+     */
+    public static class Tile
+    {
+        private int level;
+        private int size;
+        private int[] xs;
+        private int[] ys;
+        private double[] values;
+        private int[] cellCounts;
+        private int[] rows;
+
+        private Tile(int level, int capacity)
+        {
+            this.level = level;
+            this.xs = new int[capacity];
+            this.ys = new int[capacity];
+            this.values = new double[capacity];
+            this.cellCounts = new int[capacity];
+            this.rows = new int[capacity];
+        }
+
+        private void add(int x, int y, double value, int cellCount, int row)
+        {
+            if (size == xs.length) {
+                resize(size * 2);
+            }
+            xs[size] = x;
+            ys[size] = y;
+            values[size] = value;
+            cellCounts[size] = cellCount;
+            rows[size] = row;
+            size++;
+        }
+
+        private Tile trim()
+        {
+            resize(size);
+            return this;
+        }
+
+        private void resize(int capacity)
+        {
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            cellCounts = Arrays.copyOf(cellCounts, capacity);
+            rows = Arrays.copyOf(rows, capacity);
+        }
+
+        public int getLevel()
+        {
+            return level;
+        }
+
+        /**
+         * Return the number of blocks with data.
+         */
+        public int size()
+        {
+            return size;
+        }
+
+        /**
+         * Return the x coordinate of the centre of a block.
+         */
+        public int getX(int block)
+        {
+            return xs[block];
+        }
+
+        /**
+         * Return the y coordinate of the centre of a block.
+         */
+        public int getY(int block)
+        {
+            return ys[block];
+        }
+
+        /**
+         * Return the average value of the valid cells in a block.
+         */
+        public double getValue(int block)
+        {
+            return values[block];
+        }
+
+        /**
+         * Return the number of valid cells that were averaged for a block.
+         */
+        public int getCellCount(int block)
+        {
+            return cellCounts[block];
+        }
+
+        /**
+         * Return the dataset row of a block on level 0, or -1 on coarser levels.
+         */
+        public int getRow(int block)
+        {
+            return rows[block];
+        }
+    }
+}
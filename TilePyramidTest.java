@@ -0,0 +1,80 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+
+public class TilePyramidTest {
+
+    /**
+     * Create a dataset with a value for every 1 km cell in a square area, with the
+     * cell centres at 500 m, like the data files.
+     */
+    private static DataSet createGrid(int cells) {
+        DataSet dataSet = new DataSet("NO2", "2023", "annual mean", "µg/m³");
+        for (int row = 0; row < cells; row++) {
+            for (int column = 0; column < cells; column++) {
+                dataSet.addData(row * cells + column, column * 1000 + 500, row * 1000 + 500, column + row);
+            }
+        }
+        return dataSet;
+    }
+
+    @Test
+    public void testLevelZeroKeepsEveryValidCell() {
+        DataSet dataSet = createGrid(40);
+        dataSet.addData(9999, 1500, 1500, -1);
+        TilePyramid pyramid = new TilePyramid(dataSet);
+
+        int blocks = 0;
+        for (TilePyramid.Tile tile : pyramid.getTiles(0, 0, 0, 40000, 40000)) {
+            for (int block = 0; block < tile.size(); block++) {
+                int row = tile.getRow(block);
+                assertEquals(dataSet.getValue(row), tile.getValue(block));
+                assertEquals(dataSet.getX(row), tile.getX(block));
+                blocks++;
+            }
+        }
+        assertEquals(40 * 40, blocks);
+    }
+
+    @Test
+    public void testCoarserLevelsAverageTheirCells() {
+        TilePyramid pyramid = new TilePyramid(createGrid(16));
+
+        TilePyramid.Tile tile = pyramid.getTile(1, 0, 0);
+        assertEquals(8 * 8, tile.size());
+        for (int block = 0; block < tile.size(); block++) {
+            // the four cells around the block centre have the values column + row
+            int column = tile.getX(block) / 1000 - 1;
+            int row = tile.getY(block) / 1000 - 1;
+            assertEquals(4, tile.getCellCount(block));
+            assertEquals(column + row + 1, tile.getValue(block), 1e-9);
+            assertEquals(-1, tile.getRow(block));
+        }
+
+        TilePyramid.Tile coarsest = pyramid.getTile(3, 0, 0);
+        assertEquals(4, coarsest.size());
+        assertEquals(64, coarsest.getCellCount(0));
+    }
+
+    @Test
+    public void testOnlyTilesInTheAreaAreBuilt() {
+        // 100 km square: 4 x 4 level 0 tiles of 32 km
+        TilePyramid pyramid = new TilePyramid(createGrid(100), 8);
+
+        List<TilePyramid.Tile> tiles = pyramid.getTiles(0, 40000, 40000, 50000, 50000);
+        assertEquals(1, tiles.size());
+        assertEquals(1, pyramid.getTilesBuilt());
+
+        pyramid.getTiles(0, 0, 0, 100000, 100000);
+        // the tile built first is still in the cache when the loop reaches it
+        assertEquals(16, pyramid.getTilesBuilt());
+        assertEquals(8, pyramid.getCachedTileCount());
+    }
+
+    @Test
+    public void testLevelForPicksTheFinestVisibleLevel() {
+        assertEquals(0, TilePyramid.levelFor(0.02, 8));
+        assertEquals(1, TilePyramid.levelFor(0.005, 8));
+        assertEquals(3, TilePyramid.levelFor(0.0001, 8));
+    }
+}
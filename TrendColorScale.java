@@ -0,0 +1,94 @@
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A TrendColorScale maps the trends of pollution values, in µg/m³ per year, to overlay
+ * colours through a lookup table. It is a diverging scale: falling values are blue,
+ * values that stay the same are white, and rising values are red, getting stronger
+ * up to a limit on either side. Trends beyond the limit share the strongest colour.
+ *
+ * The limit of a pollutant is a tenth of its low threshold (see ColorScale) per year,
+ * so that a trend at the limit moves a value through a whole band in ten years.
+ *
+ * @author Olivier Burger
+ * @version 1
+ */
+public class TrendColorScale
+{
+    private static final int STEPS = 256;
+    private static final double OPACITY = 0.5;
+    private static final int[] FALLING_RGB = {33, 102, 172};
+    private static final int[] STEADY_RGB = {247, 247, 247};
+    private static final int[] RISING_RGB = {178, 24, 43};
+
+    private static final Map<String, TrendColorScale> SCALES = new ConcurrentHashMap<>();
+
+    private double limit;
+    private int[] table;
+
+    /**
+     * Return the trend scale for a pollutant. Scales are created once and shared.
+     *
+     * @param pollutant The pollutant type (NO2, PM10, PM2.5)
+     */
+    public static TrendColorScale forPollutant(String pollutant)
+    {
+        return SCALES.computeIfAbsent(pollutant.toUpperCase(), key ->
+            new TrendColorScale(ColorScale.forPollutant(pollutant, ColorScale.Scheme.BANDS).getBandStart(1) / 10));
+    }
+
+    /**
+     * Create a scale from -limit to +limit.
+     */
+    private TrendColorScale(double limit)
+    {
+        this.limit = limit;
+        this.table = new int[STEPS];
+        for (int i = 0; i < STEPS; i++) {
+            double position = 2.0 * i / (STEPS - 1) - 1;
+            int[] to = position < 0 ? FALLING_RGB : RISING_RGB;
+            double t = Math.abs(position);
+            table[i] = OverlayRenderer.premultiply((int) Math.round(STEADY_RGB[0] + (to[0] - STEADY_RGB[0]) * t),
+                                                   (int) Math.round(STEADY_RGB[1] + (to[1] - STEADY_RGB[1]) * t),
+                                                   (int) Math.round(STEADY_RGB[2] + (to[2] - STEADY_RGB[2]) * t),
+                                                   OPACITY);
+        }
+    }
+
+    /**
+     * Return the overlay colour for a trend, as premultiplied ARGB.
+     */
+    public int colorFor(double slope)
+    {
+        double position = Math.max(-1, Math.min(1, slope / limit));
+        return table[(int) Math.round((position + 1) / 2 * (STEPS - 1))];
+    }
+
+    /**
+     * Return the trend, in µg/m³ per year, that gets the strongest colour.
+     */
+    public double getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Create an image of the scale from the strongest fall to the strongest rise, at
+     * full opacity, for the legend.
+     */
+    public WritableImage createLegendImage(int width, int height)
+    {
+        int[] pixels = new int[width * height];
+        for (int x = 0; x < width; x++) {
+            int opaque = 0xFF000000 | ColorScale.unpremultiply(table[x * (STEPS - 1) / Math.max(width - 1, 1)]);
+            for (int y = 0; y < height; y++) {
+                pixels[y * width + x] = opaque;
+            }
+        }
+        WritableImage image = new WritableImage(width, height);
+        image.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return image;
+    }
+}